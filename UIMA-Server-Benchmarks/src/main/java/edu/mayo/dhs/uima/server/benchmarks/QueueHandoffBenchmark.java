@@ -0,0 +1,132 @@
+package edu.mayo.dhs.uima.server.benchmarks;
+
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.core.cr.BlockingStreamCollectionReader;
+import edu.mayo.dhs.uima.server.core.internal.COMMON;
+import edu.mayo.dhs.uima.server.core.internal.CasJob;
+import edu.mayo.dhs.uima.server.core.internal.Job;
+import edu.mayo.dhs.uima.server.core.internal.StreamQueue;
+import org.apache.uima.fit.factory.CollectionReaderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hand-off of jobs from submitters to pipelines through a stream's queue, i.e.
+ * {@link BlockingStreamCollectionReader#submitMessage(StreamQueue, Job)} on producer threads against
+ * {@link BlockingStreamCollectionReader#hasNext()} on consumer threads, without any UIMA processing in between
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class QueueHandoffBenchmark {
+
+    private static final String QUEUE_NAME = "benchmark-handoff";
+    private static final int JOBS_PER_INVOCATION = 1000;
+    private static final UIMAStreamRequest REQUEST = new UIMAStreamRequest("Patient denies chest pain.", null);
+
+    @Param({"1", "4"})
+    public int producers;
+
+    @Param({"1", "4"})
+    public int consumers;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private StreamQueue queue;
+    private ExecutorService producerPool;
+    private List<Thread> consumerThreads;
+    // Replaced for every invocation before any of its jobs are submitted
+    private volatile CountDownLatch consumed;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<UIMAStream.Priority, Integer> weights = new EnumMap<>(UIMAStream.Priority.class);
+        weights.put(UIMAStream.Priority.INTERACTIVE, 1);
+        weights.put(UIMAStream.Priority.BULK, 1);
+        // Without coalescing, as every job is identical
+        queue = new StreamQueue(QUEUE_NAME, capacity, weights, false);
+        COMMON.STREAM_QUEUES.put(QUEUE_NAME, queue);
+        producerPool = Executors.newFixedThreadPool(producers);
+        consumerThreads = new ArrayList<>(consumers);
+        for (int i = 0; i < consumers; i++) {
+            BlockingStreamCollectionReader reader = (BlockingStreamCollectionReader) CollectionReaderFactory.createReader(
+                    BlockingStreamCollectionReader.class, BlockingStreamCollectionReader.PARAM_QUEUENAME, QUEUE_NAME);
+            Thread consumer = new Thread(() -> consume(reader), "Benchmark-Consumer-" + i);
+            consumer.setDaemon(true);
+            consumer.start();
+            consumerThreads.add(consumer);
+        }
+    }
+
+    /**
+     * Stands in for a pipeline, finishing each job as soon as it is handed over
+     */
+    private void consume(BlockingStreamCollectionReader reader) {
+        try {
+            while (reader.hasNext()) {
+                Job<?> job = reader.getCurrentWork();
+                COMMON.CURR_JOBS.remove(job.getId(), job);
+                job.discard();
+                consumed.countDown();
+            }
+        } finally {
+            reader.destroy();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOBS_PER_INVOCATION)
+    public void handoff() throws Exception {
+        consumed = new CountDownLatch(JOBS_PER_INVOCATION);
+        List<Future<?>> submitters = new ArrayList<>(producers);
+        for (int p = 0; p < producers; p++) {
+            int jobs = JOBS_PER_INVOCATION / producers + (p < JOBS_PER_INVOCATION % producers ? 1 : 0);
+            submitters.add(producerPool.submit(() -> {
+                for (int i = 0; i < jobs; i++) {
+                    BlockingStreamCollectionReader.submitMessage(queue, new CasJob(UUID.randomUUID(), REQUEST));
+                }
+            }));
+        }
+        for (Future<?> submitter : submitters) {
+            submitter.get();
+        }
+        consumed.await();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        queue.shutdown();
+        for (Thread consumer : consumerThreads) {
+            consumer.join();
+        }
+        producerPool.shutdownNow();
+        COMMON.STREAM_QUEUES.remove(QUEUE_NAME);
+    }
+}
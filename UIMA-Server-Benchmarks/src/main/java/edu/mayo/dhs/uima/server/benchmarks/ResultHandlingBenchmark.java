@@ -0,0 +1,126 @@
+package edu.mayo.dhs.uima.server.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.StreamingMetadata;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamResult;
+import edu.mayo.dhs.uima.server.core.internal.CasJob;
+import edu.mayo.dhs.uima.server.core.internal.SerializingJob;
+import edu.mayo.dhs.uima.server.core.internal.StreamCasPool;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
+import edu.mayo.dhs.uima.server.plugin.ExampleMetadataAnalysisEngine;
+import edu.mayo.dhs.uima.server.plugin.ExampleSerializer;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.resource.metadata.MetaDataObject;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCopier;
+import org.apache.uima.util.CasCreationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what {@link edu.mayo.dhs.uima.server.core.cc.StreamResultHandlerCasConsumer} does with each processed
+ * CAS, i.e. handing the CAS itself off or serializing it, against the size of the type system and the number of
+ * annotations in the CAS. Copying the CAS, as results were returned before CASes were pooled, is included as a baseline
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ResultHandlingBenchmark {
+
+    private static final String DOCUMENT = "The patient is a 64 year old male presenting with chest pain and shortness of breath. ";
+
+    @Param({"10", "500"})
+    public int types;
+
+    @Param({"100", "10000"})
+    public int annotations;
+
+    private final UUID jobID = UUID.randomUUID();
+    private final UIMAStreamRequest request = new UIMAStreamRequest(DOCUMENT, null);
+    private final StreamMetrics metrics = new StreamMetrics();
+    private final Map<String, UIMANLPResultSerializer> serializers =
+            Collections.singletonMap("example", new ExampleSerializer());
+    private StreamCasPool pool;
+    private CAS cas;
+    private CAS copy;
+
+    @Setup
+    public void setup() throws Exception {
+        TypeSystemDescription extraTypes = UIMAFramework.getResourceSpecifierFactory().createTypeSystemDescription();
+        for (int i = 0; i < types; i++) {
+            extraTypes.addType("edu.mayo.dhs.uima.server.benchmarks.Type" + i, "", CAS.TYPE_NAME_ANNOTATION);
+        }
+        List<MetaDataObject> metadata = Arrays.asList(extraTypes, AnalysisEngineFactory
+                .createEngineDescription(ExampleMetadataAnalysisEngine.class).getAnalysisEngineMetaData());
+        pool = new StreamCasPool("benchmark-results", 1);
+        pool.initialize(metadata, null);
+        copy = CasCreationUtils.createCas(metadata);
+
+        // Held by the benchmark for its whole duration, as a pipeline would while handling the result
+        cas = pool.acquire();
+        StringBuilder document = new StringBuilder();
+        while (document.length() < annotations) {
+            document.append(DOCUMENT);
+        }
+        cas.setDocumentText(document.toString());
+        StreamingMetadata meta = new StreamingMetadata(cas.getJCas());
+        meta.setJobID(jobID.toString());
+        meta.addToIndexes();
+        // Seeded so that every fork and every commit benchmarks the same CAS
+        Random random = new Random(annotations);
+        for (int i = 0; i < annotations; i++) {
+            Type type = cas.getTypeSystem().getType("edu.mayo.dhs.uima.server.benchmarks.Type" + random.nextInt(types));
+            int begin = random.nextInt(document.length() - 10);
+            cas.addFsToIndexes(cas.createAnnotation(type, begin, begin + 1 + random.nextInt(10)));
+        }
+    }
+
+    @Benchmark
+    public CAS copyCas() {
+        copy.reset();
+        CasCopier.copyCas(cas, copy, true);
+        return copy;
+    }
+
+    @Benchmark
+    public CAS handOff() {
+        CasJob job = new CasJob(jobID, request);
+        job.complete(cas, pool, metrics);
+        UIMAStreamResult result = job.getFuture().join();
+        CAS ret = result.getCas();
+        result.close();
+        return ret;
+    }
+
+    @Benchmark
+    public Map<String, JsonNode> serialize() {
+        SerializingJob job = new SerializingJob(jobID, request, serializers);
+        job.complete(cas, pool, metrics);
+        return job.getFuture().join();
+    }
+}
@@ -0,0 +1,78 @@
+package edu.mayo.dhs.uima.server.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import edu.mayo.dhs.uima.server.rest.models.ServerResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a {@link ServerResponse} as JSON, as the REST server does for every document, against the length
+ * of the echoed document and the number of annotations in the serialized results
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ServerResponseSerializationBenchmark {
+
+    private static final String SENTENCE = "Current medications include metformin 500 mg twice daily and lisinopril 10 mg daily. ";
+
+    @Param({"1000", "100000"})
+    public int documentLength;
+
+    @Param({"10", "1000"})
+    public int annotations;
+
+    // Equivalent to Spring Boot's default mapper for the purposes of writing responses
+    private final ObjectMapper mapper = new ObjectMapper();
+    private ServerResponse response;
+
+    @Setup
+    public void setup() {
+        StringBuilder document = new StringBuilder(documentLength + SENTENCE.length());
+        while (document.length() < documentLength) {
+            document.append(SENTENCE);
+        }
+        document.setLength(documentLength);
+
+        // Seeded so that every fork and every commit serializes the same response
+        Random random = new Random(annotations);
+        ArrayNode serialized = JsonNodeFactory.instance.arrayNode();
+        for (int i = 0; i < annotations; i++) {
+            int begin = random.nextInt(documentLength - 10);
+            int end = begin + 1 + random.nextInt(10);
+            serialized.addObject()
+                    .put("type", "edu.mayo.dhs.uima.server.benchmarks.Type" + random.nextInt(10))
+                    .put("begin", begin)
+                    .put("end", end)
+                    .put("text", document.substring(begin, end));
+        }
+        Map<String, JsonNode> content = new LinkedHashMap<>();
+        content.put("annotations", serialized);
+        response = new ServerResponse(42, "benchmark", document.toString(), content);
+    }
+
+    @Benchmark
+    public byte[] writeResponse() throws Exception {
+        return mapper.writeValueAsBytes(response);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.mayo.dhs.uima.server.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.core.UIMAStreamImpl;
+import edu.mayo.dhs.uima.server.core.internal.WarmupCorpus;
+import edu.mayo.dhs.uima.server.plugin.ExampleMetadataAnalysisEngine;
+import edu.mayo.dhs.uima.server.plugin.ExampleSerializer;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end throughput of a {@link UIMAStreamImpl} running the example plugin's pipeline, from submission
+ * through processing to serialized results
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class StreamThroughputBenchmark {
+
+    private static final String STREAM_NAME = "benchmark-throughput";
+    private static final int DOCUMENTS_PER_INVOCATION = 256;
+
+    @Param({"1", "4"})
+    public int pipelines;
+
+    private final Map<String, UIMANLPResultSerializer> serializers =
+            Collections.singletonMap("example", new ExampleSerializer());
+    private final List<UIMAStreamRequest> documents = new ArrayList<>(DOCUMENTS_PER_INVOCATION);
+    private UIMAStream stream;
+
+    @Setup
+    public void setup() throws Exception {
+        System.setProperty("uima.streams." + STREAM_NAME + ".threads", String.valueOf(pipelines));
+        // Pipelines are warmed up by the benchmark's own warmup iterations, and every document must be processed
+        System.setProperty("uima.streams." + STREAM_NAME + ".warmup", "0");
+        System.setProperty("uima.streams." + STREAM_NAME + ".cache", "0");
+        stream = new UIMAStreamImpl(STREAM_NAME,
+                AnalysisEngineFactory.createEngineDescription(ExampleMetadataAnalysisEngine.class),
+                AnalysisEngineFactory.createEngineDescription(ExampleMetadataAnalysisEngine.class));
+        stream.whenReady().get();
+        int i = 0;
+        for (UIMAStreamRequest document : WarmupCorpus.generate(DOCUMENTS_PER_INVOCATION)) {
+            // Distinct documents, so that none are coalesced
+            documents.add(new UIMAStreamRequest(i++ + " " + document.getDocument(), "benchmark"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS_PER_INVOCATION)
+    public void submitBatch(Blackhole blackhole) {
+        for (CompletableFuture<Map<String, JsonNode>> result : stream.submitBatch(documents, serializers).getResults()) {
+            blackhole.consume(result.join());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        stream.shutdown();
+    }
+}
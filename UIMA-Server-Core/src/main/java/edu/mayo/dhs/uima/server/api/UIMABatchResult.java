@@ -0,0 +1,46 @@
+package edu.mayo.dhs.uima.server.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The results of a batch of documents submitted to a {@link UIMAStream}. Individual results complete independently
+ * as soon as their document has been processed, while {@link #getCombinedResult()} completes once all have
+ *
+ * @param <T> The type of result of each document
+ */
+public class UIMABatchResult<T> {
+    private final List<CompletableFuture<T>> results;
+    private CompletableFuture<List<T>> combined = null;
+
+    public UIMABatchResult(List<CompletableFuture<T>> results) {
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return One future per document in the batch, in the order the documents were submitted
+     */
+    public List<CompletableFuture<T>> getResults() {
+        return results;
+    }
+
+    /**
+     * @return A future that completes with the results of all documents, in the order they were submitted, once every
+     * document has been processed. It completes exceptionally if any document failed, in which case the results of
+     * the remaining documents are still available via {@link #getResults()}
+     */
+    public synchronized CompletableFuture<List<T>> getCombinedResult() {
+        if (combined == null) {
+            combined = CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+                List<T> ret = new ArrayList<>(results.size());
+                for (CompletableFuture<T> result : results) {
+                    ret.add(result.join());
+                }
+                return ret;
+            });
+        }
+        return combined;
+    }
+}
@@ -2,6 +2,8 @@ package edu.mayo.dhs.uima.server.api;
 
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 
+import java.util.List;
+
 /**
  * Represents a UIMA Server instance, which are online services that can manage multiple {@link UIMAStream} and
  * communicate with clients to receive requests, map them to the appropriate stream, and return a response to the
@@ -32,7 +34,8 @@ public interface UIMAServer {
     UIMAStream getStream(String streamName);
 
     /**
-     * Registers a stream by name
+     * Registers a stream by name. A name may be reused once the stream previously registered under it has been
+     * shut down and reached {@link UIMAStream.State#CLOSED}
      *
      * @param streamName   The name of the stream
      * @param metadataDesc (Optional) A descriptor for the analysis engine used to process metadata by this stream,
@@ -42,6 +45,18 @@ public interface UIMAServer {
      */
     UIMAStream registerStream(String streamName, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc);
 
+    /**
+     * Registers a stream by name, warming up each of its pipelines with the given documents before it is
+     * {@link UIMAStream#isReady() ready}, so that its first real requests are not slowed by class loading, JIT
+     * compilation and lazily loaded resources
+     *
+     * @param warmupCorpus Representative documents to warm up with. They are cycled through if
+     *                     -Duima.streams.%pipeline%.warmup asks for more documents than there are
+     * @see #registerStream(String, AnalysisEngineDescription, AnalysisEngineDescription)
+     */
+    UIMAStream registerStream(String streamName, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc,
+                              List<UIMAStreamRequest> warmupCorpus);
+
     /**
      * Retrieves a Serializer by name
      *
@@ -1,11 +1,15 @@
 package edu.mayo.dhs.uima.server.api;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import edu.mayo.dhs.uima.server.core.UIMAStreamImpl;
+import edu.mayo.dhs.uima.server.core.internal.Admission;
+import edu.mayo.dhs.uima.server.core.internal.COMMON;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
-import org.apache.uima.cas.CAS;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
 /**
@@ -13,30 +17,254 @@ import java.util.concurrent.Future;
  */
 public interface UIMAStream {
 
+    /**
+     * The lifecycle state of a stream
+     */
+    enum State {
+        /**
+         * Accepting and processing new requests
+         */
+        OPEN,
+        /**
+         * Shutting down: new requests are rejected, but outstanding requests are still being processed
+         */
+        DRAINING,
+        /**
+         * Fully shut down with all outstanding requests completed. A new stream may be registered under this name
+         */
+        CLOSED
+    }
+
+    /**
+     * The priority lane a request is queued in. When several lanes have requests waiting, higher lanes are served
+     * more often according to their weights (configurable via -Duima.streams.%pipeline%.weights.%lane%), but never
+     * exclusively, so lower lanes are never starved
+     */
+    enum Priority {
+        /**
+         * Latency-sensitive requests, e.g. those with a user waiting on the result. This is the default
+         */
+        INTERACTIVE,
+        /**
+         * Throughput-oriented requests, e.g. backfills, that can tolerate waiting behind interactive requests
+         */
+        BULK
+    }
+
     /**
      * @param name         The name of the stream
      * @param metadataDesc (Optional) A descriptor for the analysis engine used to process metadata by this stream,
      *                     it is always the first analysis engine run after a request is received
      * @param pipelineDesc A descriptor for the analysis engine UIMA should use as part of the NLP pipeline
-     * @return A new UIMA stream instance when initialization is completed using the given settings
+     * @return A new UIMA stream instance when initialization is completed using the given settings. Its pipelines
+     * may still be starting, see {@link #whenReady()}
+     */
+    static CompletableFuture<UIMAStream> build(String name, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc) {
+        return build(name, metadataDesc, pipelineDesc, COMMON.STARTUP_POOL);
+    }
+
+    /**
+     * @param executor The executor to construct the stream on
+     * @see #build(String, AnalysisEngineDescription, AnalysisEngineDescription)
      */
-    static Future<UIMAStream> build(String name, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc) {
-        return Executors.newSingleThreadExecutor().submit(() -> new UIMAStreamImpl(name, metadataDesc, pipelineDesc));
+    static CompletableFuture<UIMAStream> build(String name, AnalysisEngineDescription metadataDesc,
+                                               AnalysisEngineDescription pipelineDesc, Executor executor) {
+        CompletableFuture<UIMAStream> ret = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                ret.complete(new UIMAStreamImpl(name, metadataDesc, pipelineDesc));
+            } catch (Throwable t) {
+                ret.completeExceptionally(t);
+            }
+        });
+        return ret;
     }
 
     /**
-     * Schedules a request to the UIMA pipeline for processing
+     * Schedules a request to the UIMA pipeline for processing, blocking while this stream's queue is full
      *
      * @param document The document to process
      * @param metadata Metadata to associate with this document (optional)
-     * @return A completable future that will return a deep copy of the resulting CAS once computation is complete.
-     * This returned CAS can be further manipulated on a different thread as the UIMA pipeline processing it
+     * @return A completable future that will return the resulting CAS once computation is complete. The CAS is
+     * borrowed from this stream's CAS pool rather than copied: it can be further manipulated on a different thread
+     * from the UIMA pipeline that processed it, but the result must be {@link UIMAStreamResult#close() closed} once
+     * the caller is done with it
+     */
+    default CompletableFuture<UIMAStreamResult> submit(String document, String metadata) {
+        return submit(new UIMAStreamRequest(document, metadata));
+    }
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing, blocking while its lane of this stream's queue is full
+     *
+     * @param request The document to process alongside its metadata and priority
+     * @see #submit(String, String)
+     */
+    CompletableFuture<UIMAStreamResult> submit(UIMAStreamRequest request);
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing, running the given serializers directly against the
+     * resulting CAS within the pipeline. <br>
+     * <br>
+     * This should be preferred over {@link #submit(String, String)} whenever the serializers to use are known up
+     * front, as the CAS never has to leave the pipeline and is recycled as soon as serialization completes.
+     * Blocks while this stream's queue is full.
+     *
+     * @param document    The document to process
+     * @param metadata    Metadata to associate with this document (optional)
+     * @param serializers The serializers to run, keyed by the name under which their output should be returned
+     * @return A completable future that will return the output of each serializer, keyed by name, once computation
+     * and serialization are complete
+     */
+    default CompletableFuture<Map<String, JsonNode>> submit(String document, String metadata,
+                                                            Map<String, UIMANLPResultSerializer> serializers) {
+        return submit(new UIMAStreamRequest(document, metadata), serializers);
+    }
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing and in-pipeline serialization, blocking while its lane
+     * of this stream's queue is full
+     *
+     * @param request     The document to process alongside its metadata and priority
+     * @param serializers The serializers to run, keyed by the name under which their output should be returned
+     * @see #submit(String, String, Map)
+     */
+    CompletableFuture<Map<String, JsonNode>> submit(UIMAStreamRequest request,
+                                                    Map<String, UIMANLPResultSerializer> serializers);
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing if there is space in this stream's queue, without
+     * blocking
+     *
+     * @see #submit(String, String)
+     * @throws UIMAStreamOverloadedException If this stream's queue is full
+     */
+    default CompletableFuture<UIMAStreamResult> trySubmit(String document, String metadata) {
+        return trySubmit(new UIMAStreamRequest(document, metadata));
+    }
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing if there is space in its lane of this stream's queue,
+     * without blocking
+     *
+     * @see #submit(UIMAStreamRequest)
+     * @throws UIMAStreamOverloadedException If the request's lane of this stream's queue is full
+     */
+    CompletableFuture<UIMAStreamResult> trySubmit(UIMAStreamRequest request);
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing and in-pipeline serialization if there is space in
+     * this stream's queue, without blocking
+     *
+     * @see #submit(String, String, Map)
+     * @throws UIMAStreamOverloadedException If this stream's queue is full
+     */
+    default CompletableFuture<Map<String, JsonNode>> trySubmit(String document, String metadata,
+                                                               Map<String, UIMANLPResultSerializer> serializers) {
+        return trySubmit(new UIMAStreamRequest(document, metadata), serializers);
+    }
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing and in-pipeline serialization if there is space in its
+     * lane of this stream's queue, without blocking
+     *
+     * @see #submit(UIMAStreamRequest, Map)
+     * @throws UIMAStreamOverloadedException If the request's lane of this stream's queue is full
+     */
+    CompletableFuture<Map<String, JsonNode>> trySubmit(UIMAStreamRequest request,
+                                                       Map<String, UIMANLPResultSerializer> serializers);
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing and in-pipeline serialization if there is space in its
+     * lane of this stream's queue, without blocking, handing out the output of each serializer as soon as that
+     * serializer is done rather than once all of them are
+     *
+     * @return A completable future that completes once the document has passed through the pipeline, with a future of
+     * the output of each serializer keyed by name. A failing serializer only fails its own future
+     * @throws UIMAStreamOverloadedException If the request's lane of this stream's queue is full
+     * @see #trySubmit(UIMAStreamRequest, Map)
+     */
+    CompletableFuture<Map<String, CompletableFuture<JsonNode>>> trySubmitProgressively(UIMAStreamRequest request,
+                                                                                     Map<String, UIMANLPResultSerializer> serializers);
+
+    /**
+     * Schedules a request to the UIMA pipeline for processing and in-pipeline serialization once there is space for
+     * it, without blocking: while this stream is still starting the request waits until it is {@link #whenReady()
+     * ready}, and while its lane of this stream's queue is full it is retried on a timer rather than rejected
+     *
+     * @return A completable future that will return the output of each serializer, keyed by name, or fail with a
+     * {@link java.util.concurrent.TimeoutException} if the request's deadline passes before it is admitted. Cancelling
+     * it cancels the request, whether still waiting to be admitted or already queued
+     * @see #trySubmit(UIMAStreamRequest, Map)
+     */
+    default CompletableFuture<Map<String, JsonNode>> submitWhenAdmitted(UIMAStreamRequest request,
+                                                                        Map<String, UIMANLPResultSerializer> serializers) {
+        return Admission.whenAdmitted(this, request, () -> trySubmit(request, serializers));
+    }
+
+    /**
+     * Schedules a batch of requests to the UIMA pipeline for processing. The batch is enqueued as a whole in a single
+     * queue operation rather than document by document, blocking while this stream's queue does not have space for it.
+     * Batches larger than the capacity of a lane of this stream's queue are enqueued in capacity-sized parts
+     *
+     * @param requests The documents to process
+     * @return The results of each document, which complete individually as soon as that document has been processed.
+     * As with {@link #submit(String, String)}, each result must be {@link UIMAStreamResult#close() closed} once the
+     * caller is done with it
+     */
+    UIMABatchResult<UIMAStreamResult> submitBatch(List<UIMAStreamRequest> requests);
+
+    /**
+     * Schedules a batch of requests to the UIMA pipeline for processing and in-pipeline serialization
+     *
+     * @param requests    The documents to process
+     * @param serializers The serializers to run against every document, keyed by the name under which their output
+     *                    should be returned
+     * @return The output of each serializer for each document
+     * @see #submitBatch(List)
+     * @see #submit(String, String, Map)
+     */
+    UIMABatchResult<Map<String, JsonNode>> submitBatch(List<UIMAStreamRequest> requests,
+                                                       Map<String, UIMANLPResultSerializer> serializers);
+
+    /**
+     * @return The current lifecycle state of this stream
+     */
+    State getState();
+
+    /**
+     * @return Whether all of this stream's initial pipelines have started. Requests submitted beforehand are queued,
+     * but have to wait for the pipelines to finish loading their models
+     */
+    boolean isReady();
+
+    /**
+     * @return A future that completes with this stream once it is {@link #isReady() ready}, or exceptionally if it is
+     * shut down first. A stream whose pipelines repeatedly fail to start is shut down, failing this future with the
+     * cause
+     */
+    CompletableFuture<UIMAStream> whenReady();
+
+    /**
+     * Changes the number of pipelines this stream runs without restarting it. If both bounds are equal the stream
+     * is resized to exactly that many pipelines, otherwise it is scaled automatically between them based on its queue
+     * depth and per-document latency. Pipelines being removed finish their current document first
+     *
+     * @param minPipelines The minimum number of pipelines to run, at least 1
+     * @param maxPipelines The maximum number of pipelines to run, no more than the size of this stream's CAS pool
+     * @throws IllegalArgumentException If the bounds are invalid
+     * @throws IllegalStateException    If this stream has been shut down
+     */
+    void resize(int minPipelines, int maxPipelines);
+
+    /**
+     * @return The number of pipelines currently running for this stream
      */
-    CompletableFuture<CAS> submit(String document, String metadata);
+    int getPipelineCount();
 
     /**
      * Gracefully shuts down this stream, rejecting any new requests but completing any outstanding requests. <br>
-     * This request will block until all current outstanding requests are completed.
+     * Other streams are unaffected. This request will block until all current outstanding requests are completed.
      */
     void shutdown();
 
@@ -0,0 +1,30 @@
+package edu.mayo.dhs.uima.server.api;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a request is rejected because the queue of the {@link UIMAStream} it was submitted to is full
+ */
+public class UIMAStreamOverloadedException extends RejectedExecutionException {
+
+    private final String streamName;
+    private final long retryAfterMillis;
+
+    public UIMAStreamOverloadedException(String streamName, long retryAfterMillis) {
+        super("The queue for UIMA Stream " + streamName + " is full");
+        this.streamName = streamName;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getStreamName() {
+        return streamName;
+    }
+
+    /**
+     * @return An estimate of how long it will take the stream to work through its current backlog at its current
+     * rate of processing in milliseconds, or -1 if no estimate is available yet
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,106 @@
+package edu.mayo.dhs.uima.server.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single document to be processed by a {@link UIMAStream}
+ */
+public class UIMAStreamRequest {
+    private String document = null;
+    private String metadata = null;
+    private UIMAStream.Priority priority = UIMAStream.Priority.INTERACTIVE;
+    private Long deadline = null;
+    private UIMAStreamTimings timings = null;
+
+    public UIMAStreamRequest() {}
+
+    /**
+     * @param document The document to process
+     * @param metadata Metadata to associate with this document (optional)
+     */
+    public UIMAStreamRequest(String document, String metadata) {
+        this.document = document;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @param document The document to process
+     * @param metadata Metadata to associate with this document (optional)
+     * @param priority The priority lane to queue this document in
+     */
+    public UIMAStreamRequest(String document, String metadata, UIMAStream.Priority priority) {
+        this(document, metadata);
+        this.priority = priority;
+    }
+
+    public String getDocument() {
+        return document;
+    }
+
+    public String getMetadata() {
+        return metadata;
+    }
+
+    public UIMAStream.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The time, in milliseconds since the epoch, after which nobody is waiting on the result of this request
+     * any longer, or null if there is no deadline
+     */
+    public Long getDeadline() {
+        return deadline;
+    }
+
+    public void setDocument(String document) {
+        this.document = document;
+    }
+
+    public void setMetadata(String metadata) {
+        this.metadata = metadata;
+    }
+
+    public void setPriority(UIMAStream.Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Sets a deadline for this request. Requests that have not yet started processing by their deadline are skipped
+     * rather than processed, and their futures completed with a {@link java.util.concurrent.TimeoutException}.
+     * Requests still processing at their deadline are also failed with a {@link java.util.concurrent.TimeoutException}
+     *
+     * @param deadline The time in milliseconds since the epoch, or null for no deadline
+     */
+    public void setDeadline(Long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets the deadline of this request relative to the current time
+     *
+     * @see #setDeadline(Long)
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+    }
+
+    /**
+     * @return Where the time processing this request went, filled in by the time its future completes, or null if
+     * timings are not being collected
+     */
+    public UIMAStreamTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Requests a breakdown of where the time processing this request goes: queue wait, each annotator, result
+     * handling and each serializer. Timed requests are never answered from a stream's result cache or coalesced with
+     * identical requests, so that they always reflect a pass through the pipeline
+     *
+     * @param collectTimings Whether to collect timings, off by default
+     */
+    public void setCollectTimings(boolean collectTimings) {
+        this.timings = collectTimings ? new UIMAStreamTimings() : null;
+    }
+}
@@ -0,0 +1,25 @@
+package edu.mayo.dhs.uima.server.api;
+
+import org.apache.uima.cas.CAS;
+
+/**
+ * The result of processing a document through a {@link UIMAStream}. <br>
+ * <br>
+ * The contained {@link CAS} is the very CAS the pipeline populated, borrowed from the stream's CAS pool rather than
+ * copied. It must be returned via {@link #close()} (e.g. through try-with-resources) once the caller is done with it,
+ * otherwise the stream will eventually run out of CASes to process new documents with.
+ */
+public interface UIMAStreamResult extends AutoCloseable {
+    /**
+     * @return The CAS containing the results of the pipeline
+     * @throws IllegalStateException If this result has already been closed
+     */
+    CAS getCas();
+
+    /**
+     * Returns the CAS to its stream's pool. The CAS must not be used after this call. Calling this method more than
+     * once has no effect
+     */
+    @Override
+    void close();
+}
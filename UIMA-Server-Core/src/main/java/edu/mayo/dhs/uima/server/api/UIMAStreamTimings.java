@@ -0,0 +1,72 @@
+package edu.mayo.dhs.uima.server.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A breakdown of where the time processing a single {@link UIMAStreamRequest} went, collected if requested via
+ * {@link UIMAStreamRequest#setCollectTimings(boolean)} and filled in by the time the request's future completes
+ */
+public class UIMAStreamTimings {
+    private long queueWaitNanos = 0;
+    private long processingNanos = 0;
+    private Map<String, Long> annotatorMillis = new LinkedHashMap<>();
+    private long resultHandlingNanos = 0;
+    private Map<String, Long> serializerNanos = new LinkedHashMap<>();
+
+    /**
+     * @return The time the request waited in the stream's queue before a pipeline picked it up
+     */
+    public long getQueueWaitNanos() {
+        return queueWaitNanos;
+    }
+
+    /**
+     * @return The time from a pipeline picking the request up until its result was ready, including result handling
+     */
+    public long getProcessingNanos() {
+        return processingNanos;
+    }
+
+    /**
+     * @return The time each annotator spent on the request, keyed by the path of delegate keys leading to that
+     * annotator. UIMA measures these times at millisecond resolution
+     */
+    public Map<String, Long> getAnnotatorMillis() {
+        return annotatorMillis;
+    }
+
+    /**
+     * @return The time spent producing the result from the processed CAS, including serialization
+     */
+    public long getResultHandlingNanos() {
+        return resultHandlingNanos;
+    }
+
+    /**
+     * @return The time each serializer spent on the request, keyed by the name its output is returned under
+     */
+    public Map<String, Long> getSerializerNanos() {
+        return serializerNanos;
+    }
+
+    public void setQueueWaitNanos(long queueWaitNanos) {
+        this.queueWaitNanos = queueWaitNanos;
+    }
+
+    public void setProcessingNanos(long processingNanos) {
+        this.processingNanos = processingNanos;
+    }
+
+    public void setAnnotatorMillis(Map<String, Long> annotatorMillis) {
+        this.annotatorMillis = annotatorMillis;
+    }
+
+    public void setResultHandlingNanos(long resultHandlingNanos) {
+        this.resultHandlingNanos = resultHandlingNanos;
+    }
+
+    public void setSerializerNanos(Map<String, Long> serializerNanos) {
+        this.serializerNanos = serializerNanos;
+    }
+}
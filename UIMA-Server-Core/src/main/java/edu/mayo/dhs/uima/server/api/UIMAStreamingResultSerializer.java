@@ -0,0 +1,53 @@
+package edu.mayo.dhs.uima.server.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.apache.uima.cas.CAS;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A {@link UIMANLPResultSerializer} that writes its result straight to a {@link JsonGenerator} instead of building a
+ * {@link JsonNode} tree. <br>
+ * <br>
+ * Streams keep such results in Jackson's compact token form until they are written to the client in whichever format
+ * it asked for, so no intermediate tree is ever built. Binary values written via
+ * {@link JsonGenerator#writeBinary(byte[])} are base64-encoded in JSON, but sent as raw bytes in binary formats such
+ * as Smile and CBOR
+ */
+public interface UIMAStreamingResultSerializer extends UIMANLPResultSerializer {
+    /**
+     * Serializes a NLP result by writing it to the given generator
+     * @param cas       The UIMA {@link CAS} that is the result of passing a document through a UIMA pipeline
+     * @param generator The generator to write exactly one value (typically an object) to
+     * @throws IOException If writing to the generator fails
+     */
+    void serializeNLPResult(CAS cas, JsonGenerator generator) throws IOException;
+
+    /**
+     * Builds a tree out of what {@link #serializeNLPResult(CAS, JsonGenerator)} writes, for callers that need one
+     */
+    @Override
+    default JsonNode serializeNLPResult(CAS cas) {
+        TokenBuffer buffer = new TokenBuffer(null, false);
+        try {
+            serializeNLPResult(cas, buffer);
+            return TreeReader.MAPPER.readTree(buffer.asParser());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Holds the mapper used to build trees, which interfaces cannot hold privately
+     */
+    final class TreeReader {
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+
+        private TreeReader() {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package edu.mayo.dhs.uima.server.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.mayo.dhs.uima.server.core.internal.StreamQueue;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically resizes a {@link UIMAStreamImpl} between its minimum and maximum number of pipelines. <br>
+ * <br>
+ * Each interval, the number of pipelines needed is estimated from the rate at which documents arrived and the mean
+ * time a pipeline spends on each document (Little's law), plus enough to work through the current backlog within the
+ * target drain time. The stream scales up to that estimate immediately, but only scales down one pipeline at a time
+ * after the estimate has stayed lower for several consecutive intervals, so that it does not thrash on bursty load.
+ */
+class PipelineAutoscaler {
+
+    // Shared by all streams, as each evaluation is cheap
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("UIMA-Autoscaler").setDaemon(true).build());
+    // Spare capacity kept on top of the estimate to absorb variance in arrivals
+    private static final double HEADROOM = 1.25;
+    private static final int SCALE_DOWN_INTERVALS = 3;
+
+    private final Logger logger;
+    private final UIMAStreamImpl stream;
+    private final long intervalMillis;
+    private final long targetDrainMillis;
+    private final ScheduledFuture<?> task;
+    private long lastCompleted;
+    private int lastDepth;
+    private long lastServiceNanos;
+    private long lastServiced;
+    private double meanServiceNanos = -1;
+    private int lowIntervals = 0;
+
+    /**
+     * @param stream            The stream to scale
+     * @param intervalMillis    How often to re-evaluate the number of pipelines in milliseconds
+     * @param targetDrainMillis How quickly the stream should be able to work through its backlog in milliseconds
+     */
+    PipelineAutoscaler(UIMAStreamImpl stream, long intervalMillis, long targetDrainMillis) {
+        this.logger = Logger.getLogger("UIMA-Stream-" + stream.getName());
+        this.stream = stream;
+        this.intervalMillis = Math.max(100, intervalMillis);
+        this.targetDrainMillis = Math.max(1, targetDrainMillis);
+        StreamQueue queue = stream.getQueue();
+        this.lastCompleted = queue.getCompletedJobs();
+        this.lastDepth = queue.getDepth();
+        this.lastServiceNanos = stream.getServiceNanos();
+        this.lastServiced = stream.getServicedDocuments();
+        this.task = SCHEDULER.scheduleWithFixedDelay(this::evaluate, this.intervalMillis, this.intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        task.cancel(false);
+    }
+
+    private void evaluate() {
+        try {
+            StreamQueue queue = stream.getQueue();
+            long completed = queue.getCompletedJobs();
+            int depth = queue.getDepth();
+            long serviceNanos = stream.getServiceNanos();
+            long serviced = stream.getServicedDocuments();
+            if (serviced > lastServiced) {
+                meanServiceNanos = (serviceNanos - lastServiceNanos) / (double) (serviced - lastServiced);
+            }
+            // Whatever was completed plus however much the backlog grew must have arrived during this interval
+            long arrived = Math.max(0, (completed - lastCompleted) + (depth - lastDepth));
+            lastCompleted = completed;
+            lastDepth = depth;
+            lastServiceNanos = serviceNanos;
+            lastServiced = serviced;
+
+            int current = stream.getTargetPipelineCount();
+            int desired;
+            if (meanServiceNanos < 0) {
+                // No idea how long documents take yet, so just add a pipeline at a time while a backlog exists
+                desired = depth > 0 ? current + 1 : current;
+            } else {
+                double arrivalRate = arrived / (double) TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+                double backlogRate = depth / (double) TimeUnit.MILLISECONDS.toNanos(targetDrainMillis);
+                desired = (int) Math.ceil((arrivalRate + backlogRate) * meanServiceNanos * HEADROOM);
+            }
+            desired = Math.min(stream.getMaxPipelineCount(), Math.max(stream.getMinPipelineCount(), desired));
+
+            if (desired > current) {
+                lowIntervals = 0;
+                // Pipelines still loading their models will add capacity soon, don't pile more on top of them
+                if (stream.getStartingPipelineCount() == 0) {
+                    stream.scaleTo(desired);
+                }
+            } else if (desired < current) {
+                if (++lowIntervals >= SCALE_DOWN_INTERVALS) {
+                    lowIntervals = 0;
+                    stream.scaleTo(current - 1);
+                }
+            } else {
+                lowIntervals = 0;
+            }
+        } catch (Throwable t) {
+            // Never let an unexpected error stop future evaluations
+            logger.log(Level.SEVERE, "Error while autoscaling", t);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package edu.mayo.dhs.uima.server.core;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the serialized results of a {@link UIMAStreamImpl} by the content of the request that produced them, so that
+ * identical documents resubmitted to the same pipeline are answered without being processed again. <br>
+ * <br>
+ * Results are held as buffered tokens rather than trees, handing every caller its own copy of the result. Unlike
+ * serialized JSON, tokens keep binary results binary, so a cached result comes back in exactly the form the
+ * serializer produced it in. The cache is bounded by an estimate of the memory its buffered tokens take up, and the
+ * least recently used results are evicted first once it is full
+ */
+class ResultCache {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Rough bookkeeping cost of each entry on top of its buffered results
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+    // Rough cost of each buffered token on top of any text or binary data it holds
+    private static final int TOKEN_OVERHEAD_BYTES = 8;
+
+    private final Logger logger;
+    private final String streamName;
+    private final String pipelineVersion;
+    private final Cache<HashCode, CachedResult> cache;
+
+    /**
+     * @param pipelineVersion Identifies the pipeline producing the results, so that results of a changed pipeline
+     *                        are never served
+     * @param maxBytes        The maximum total size of cached results in bytes
+     */
+    ResultCache(String streamName, String pipelineVersion, long maxBytes) {
+        this.logger = Logger.getLogger("UIMA-Stream-" + streamName);
+        this.streamName = streamName;
+        this.pipelineVersion = pipelineVersion;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((HashCode key, CachedResult value) -> value.bytes + ENTRY_OVERHEAD_BYTES)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return A key identifying the result of processing the given request with the given serializers
+     */
+    HashCode key(UIMAStreamRequest request, Map<String, UIMANLPResultSerializer> serializers) {
+        // A cryptographic hash, as a collision would hand one client the results of another's document
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, streamName);
+        putString(hasher, pipelineVersion);
+        putString(hasher, request.getDocument());
+        putString(hasher, request.getMetadata());
+        // Serializer order does not change the results, only the order in which they are returned
+        for (Map.Entry<String, UIMANLPResultSerializer> serializer : new TreeMap<>(serializers).entrySet()) {
+            putString(hasher, serializer.getKey());
+            putString(hasher, serializer.getValue().getClass().getName());
+        }
+        return hasher.hash();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        // Length-prefixed so that adjacent fields can never run into each other
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return A copy of the cached results, or null if there are none
+     */
+    Map<String, JsonNode> get(HashCode key) {
+        CachedResult cached = cache.getIfPresent(key);
+        if (cached == null) {
+            return null;
+        }
+        try {
+            Map<String, JsonNode> results = new LinkedHashMap<>();
+            for (Map.Entry<String, TokenBuffer> result : cached.results.entrySet()) {
+                TokenBuffer buffer = result.getValue();
+                if (buffer == null) {
+                    results.put(result.getKey(), null);
+                } else if (cached.streamed.contains(result.getKey())) {
+                    // Replaying does not modify the buffer, so every hit can share it
+                    results.put(result.getKey(), new POJONode(buffer));
+                } else {
+                    try (JsonParser parser = buffer.asParser(MAPPER)) {
+                        results.put(result.getKey(), MAPPER.readTree(parser));
+                    }
+                }
+            }
+            return results;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Discarding unreadable cached result for UIMA Stream " + streamName, e);
+            cache.invalidate(key);
+            return null;
+        }
+    }
+
+    void put(HashCode key, Map<String, JsonNode> results) {
+        try {
+            Map<String, TokenBuffer> buffered = new LinkedHashMap<>();
+            Set<String> streamed = new HashSet<>();
+            long bytes = 0;
+            for (Map.Entry<String, JsonNode> result : results.entrySet()) {
+                JsonNode value = result.getValue();
+                if (value instanceof POJONode && ((POJONode) value).getPojo() instanceof TokenBuffer) {
+                    // Already tokens from a streaming serializer
+                    buffered.put(result.getKey(), (TokenBuffer) ((POJONode) value).getPojo());
+                    streamed.add(result.getKey());
+                } else if (value == null) {
+                    buffered.put(result.getKey(), null);
+                } else {
+                    TokenBuffer buffer = new TokenBuffer(MAPPER, false);
+                    MAPPER.writeTree(buffer, value);
+                    buffered.put(result.getKey(), buffer);
+                }
+                if (buffered.get(result.getKey()) != null) {
+                    bytes += weigh(buffered.get(result.getKey()));
+                }
+            }
+            cache.put(key, new CachedResult(buffered, streamed, (int) Math.min(Integer.MAX_VALUE, bytes)));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not cache result for UIMA Stream " + streamName, e);
+        }
+    }
+
+    /**
+     * Estimates the memory a buffered result takes up by walking its tokens, which only reads what the buffer already
+     * holds rather than writing the result out again, e.g. base64-encoding binary results
+     *
+     * @return The approximate size of the result in bytes
+     */
+    private static long weigh(TokenBuffer buffer) throws IOException {
+        long bytes = 0;
+        try (JsonParser parser = buffer.asParser()) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                bytes += TOKEN_OVERHEAD_BYTES;
+                if (token == JsonToken.FIELD_NAME || token == JsonToken.VALUE_STRING) {
+                    bytes += parser.getTextLength();
+                } else if (token == JsonToken.VALUE_EMBEDDED_OBJECT && parser.getEmbeddedObject() instanceof byte[]) {
+                    bytes += ((byte[]) parser.getEmbeddedObject()).length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Hit, miss and eviction counts of this cache
+     */
+    CacheStats getStats() {
+        return cache.stats();
+    }
+
+    long getEntryCount() {
+        return cache.size();
+    }
+
+    private static class CachedResult {
+        private final Map<String, TokenBuffer> results;
+        // Results that were produced as tokens by a streaming serializer, rather than as a tree
+        private final Set<String> streamed;
+        private final int bytes;
+
+        CachedResult(Map<String, TokenBuffer> results, Set<String> streamed, int bytes) {
+            this.results = results;
+            this.streamed = streamed;
+            this.bytes = bytes;
+        }
+    }
+}
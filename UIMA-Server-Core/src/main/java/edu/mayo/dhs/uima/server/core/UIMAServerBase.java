@@ -4,6 +4,9 @@ import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
 import edu.mayo.dhs.uima.server.api.UIMAServer;
 import edu.mayo.dhs.uima.server.api.UIMAServerPlugin;
 import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.core.internal.COMMON;
+import edu.mayo.dhs.uima.server.core.serializers.CompressedBinaryCasSerializer;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.pear.util.FileUtil;
 
@@ -16,15 +19,26 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Serves as a base class common to the various UIMA server implementations: loads plugins and creates relevant streams
+ * Serves as a base class common to the various UIMA server implementations: loads plugins and creates relevant streams.
+ * <br>
+ * Plugins are enabled in parallel on {@link COMMON#STARTUP_POOL}, and the server is started as soon as all plugins have
+ * registered their streams, without waiting for the pipelines of those streams to finish loading. Streams that are
+ * still starting report so via {@link UIMAStream#isReady()}
  */
 public abstract class UIMAServerBase implements UIMAServer {
 
@@ -32,27 +46,65 @@ public abstract class UIMAServerBase implements UIMAServer {
     private Map<String, UIMAStream> streams;
     private Map<String, UIMANLPResultSerializer> serializers;
     private URLClassLoader classLoader;
-
+    private Logger logger = Logger.getLogger("UIMA-Server");
 
     protected UIMAServerBase() {
-        this.classLoader = (URLClassLoader) ClassLoader.getSystemClassLoader();
-        this.plugins = new HashMap<>();
-        this.streams = new HashMap<>();
-        this.serializers = new HashMap<>();
-        init();
+        this(true);
+    }
+
+    /**
+     * @param loadPlugins Whether to load libraries and plugins from the {@code libs} and {@code plugins} folders of
+     *                    the working directory. Servers that do not load them never touch the system classloader, and
+     *                    are left to register streams, serializers and plugins programmatically
+     */
+    protected UIMAServerBase(boolean loadPlugins) {
+        this.plugins = new ConcurrentHashMap<>();
+        // Plugins may register streams and serializers concurrently
+        this.streams = new ConcurrentHashMap<>();
+        this.serializers = new ConcurrentHashMap<>();
+        this.serializers.put(CompressedBinaryCasSerializer.NAME, new CompressedBinaryCasSerializer());
+        init(loadPlugins);
     }
 
-    private void init() {
-        loadLibs();
-        loadPlugins();
-        enablePlugins();
+    private void init(boolean loadPlugins) {
+        if (loadPlugins) {
+            this.classLoader = (URLClassLoader) ClassLoader.getSystemClassLoader();
+            loadLibs();
+            loadPlugins();
+            enablePlugins();
+        }
         start();
     }
 
     private void enablePlugins() {
+        long start = System.currentTimeMillis();
+        Map<String, CompletableFuture<Void>> enabling = new HashMap<>();
         for (UIMAServerPlugin p : plugins.values()) {
-            p.onEnable(this);
+            enabling.put(p.getName(), CompletableFuture.runAsync(() -> p.onEnable(this), COMMON.STARTUP_POOL));
+        }
+        // Let every plugin finish before failing, so that a broken plugin does not leave others half-enabled
+        List<Throwable> failures = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Void>> e : enabling.entrySet()) {
+            try {
+                e.getValue().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while enabling plugins", ex);
+            } catch (ExecutionException ex) {
+                logger.log(Level.SEVERE, "Failed to enable plugin " + e.getKey(), ex.getCause());
+                failures.add(ex.getCause());
+            }
+        }
+        if (!failures.isEmpty()) {
+            RuntimeException ex = new RuntimeException(failures.size() + " plugin(s) failed to enable", failures.get(0));
+            for (int i = 1; i < failures.size(); i++) {
+                ex.addSuppressed(failures.get(i));
+            }
+            throw ex;
         }
+        long starting = streams.values().stream().filter(stream -> !stream.isReady()).count();
+        logger.log(Level.INFO, "Enabled " + plugins.size() + " plugin(s) in " + (System.currentTimeMillis() - start)
+                + "ms, " + starting + " of " + streams.size() + " stream(s) are still starting");
     }
 
     private void loadLibs() {
@@ -151,6 +203,17 @@ public abstract class UIMAServerBase implements UIMAServer {
         }
     }
 
+    /**
+     * Enables a plugin that is already on the classpath rather than in the {@code plugins} folder, e.g. one bundled
+     * with an application embedding the server. The plugin is enabled on the calling thread
+     */
+    public void enablePlugin(UIMAServerPlugin plugin) {
+        if (plugins.putIfAbsent(plugin.getName().toLowerCase(), plugin) != null) {
+            throw new IllegalStateException("A plugin with name " + plugin.getName() + " has already been enabled!");
+        }
+        plugin.onEnable(this);
+    }
+
     @Override
     public UIMAServerPlugin getPlugin(String pluginName) {
         return plugins.get(pluginName.toLowerCase());
@@ -160,17 +223,46 @@ public abstract class UIMAServerBase implements UIMAServer {
         return streams.get(streamName.toLowerCase());
     }
 
+    /**
+     * @return A snapshot of all currently registered streams
+     */
+    public Collection<UIMAStream> getStreams() {
+        return new ArrayList<>(streams.values());
+    }
+
+    /**
+     * Registers a stream by name, returning once the stream has been constructed. Its pipelines continue starting (and
+     * warming up) in the background, during which requests to it are queued
+     */
     public UIMAStream registerStream(String streamName, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc) {
-        if (getStream(streamName) != null) {
+        return registerStream(streamName, metadataDesc, pipelineDesc, null);
+    }
+
+    public UIMAStream registerStream(String streamName, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc,
+                                     List<UIMAStreamRequest> warmupCorpus) {
+        // Constructed on the calling thread rather than via UIMAStream#build: plugins call this from the startup pool,
+        // and blocking a startup thread on another startup task could deadlock once all startup threads are busy
+        String name = streamName.toLowerCase();
+        UIMAStream existing = streams.get(name);
+        if (existing != null && existing.getState() != UIMAStream.State.CLOSED) {
             throw new IllegalStateException("A stream with " + streamName + " has already been registered!");
         }
+        // Built outside of the map, as loading a pipeline can take a long time and must not hold up other streams
+        UIMAStream stream;
         try {
-            UIMAStream ret = UIMAStream.build(streamName.toLowerCase(), metadataDesc, pipelineDesc).get();
-            streams.put(streamName.toLowerCase(), ret);
-            return ret;
-        } catch (InterruptedException | ExecutionException e) {
+            stream = new UIMAStreamImpl(name, metadataDesc, pipelineDesc, warmupCorpus);
+        } catch (Exception e) {
             throw new RuntimeException("Building of stream " + streamName + " failed!", e);
         }
+        boolean registered = existing == null
+                ? streams.putIfAbsent(name, stream) == null
+                : streams.replace(name, existing, stream);
+        if (!registered) {
+            // Lost a race against a concurrent registration, nobody can have submitted to this instance yet
+            stream.shutdownNow();
+            throw new IllegalStateException("A stream with " + streamName + " has already been registered!");
+        }
+        return stream;
     }
 
     public UIMANLPResultSerializer getSerializer(String serializerName) {
@@ -178,9 +270,8 @@ public abstract class UIMAServerBase implements UIMAServer {
     }
 
     public void registerSerializer(String streamName, UIMANLPResultSerializer serializer) {
-        if (getSerializer(streamName) != null) {
+        if (serializers.putIfAbsent(streamName.toLowerCase(), serializer) != null) {
             throw new IllegalStateException("A stream with " + streamName + " has already been registered!");
         }
-        serializers.put(streamName.toLowerCase(), serializer);
     }
 }
@@ -1,15 +1,34 @@
 package edu.mayo.dhs.uima.server.core;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.mayo.dhs.uima.server.StreamingMetadata;
+import edu.mayo.dhs.uima.server.api.UIMABatchResult;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
 import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamResult;
 import edu.mayo.dhs.uima.server.core.cc.StreamResultHandlerCasConsumer;
 import edu.mayo.dhs.uima.server.core.cr.BlockingStreamCollectionReader;
 import edu.mayo.dhs.uima.server.core.internal.COMMON;
+import edu.mayo.dhs.uima.server.core.internal.CasJob;
+import edu.mayo.dhs.uima.server.core.internal.Job;
+import edu.mayo.dhs.uima.server.core.internal.JobReaper;
+import edu.mayo.dhs.uima.server.core.internal.ProgressiveSerializingJob;
+import edu.mayo.dhs.uima.server.core.internal.SerializingJob;
+import edu.mayo.dhs.uima.server.core.internal.SharedResourceManager;
+import edu.mayo.dhs.uima.server.core.internal.StreamCasPool;
+import edu.mayo.dhs.uima.server.core.internal.StreamQueue;
+import edu.mayo.dhs.uima.server.core.internal.WarmupCorpus;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
 import org.apache.uima.UIMAException;
 import org.apache.uima.UIMAFramework;
 import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.collection.CollectionReaderDescription;
@@ -20,13 +39,25 @@ import org.apache.uima.fit.internal.ResourceManagerFactory;
 import org.apache.uima.fit.pipeline.SimplePipeline;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.fit.util.LifeCycleUtil;
+import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.ResourceManager;
-import org.apache.uima.util.CasCreationUtils;
+import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,20 +66,74 @@ import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDesc
 
 public class UIMAStreamImpl implements UIMAStream {
 
+    // The longest time waited before trying to start a pipeline that keeps failing to start again
+    private static final long MAX_RESTART_BACKOFF_MILLIS = 30000;
+
     private Logger logger;
     private String name;
     private ExecutorService threadPool;
+    // Null if serializers run on the pipeline threads themselves
+    private ThreadPoolExecutor serializerPool = null;
+    private StreamQueue queue;
+    private StreamCasPool casPool;
+    private CollectionReaderDescription readerDesc;
+    private AnalysisEngineDescription aggregateDesc;
+    // The number of pipelines this stream is scaling towards, guarded by this
+    private int targetPipelines = 0;
+    private volatile int minPipelines;
+    private volatile int maxPipelines;
+    // Pipelines currently running, and of those how many are still initializing
+    private final AtomicInteger runningPipelines = new AtomicInteger();
+    private final AtomicInteger startingPipelines = new AtomicInteger();
+    private final AtomicLong serviceNanos = new AtomicLong();
+    private final AtomicLong servicedDocuments = new AtomicLong();
+    private PipelineAutoscaler autoscaler = null;
+    // Shared by all pipelines of this stream so that external resources (e.g. dictionaries and models) bound to its
+    // analysis engines are only loaded once, or null if each pipeline should get its own
+    private SharedResourceManager sharedResMgr = null;
+    private volatile boolean sharedResourcesLoaded = false;
+    private final Object sharedResourcesLock = new Object();
+    // Completed once the pipelines this stream was started with have all initialized
+    private final CompletableFuture<UIMAStream> ready = new CompletableFuture<>();
+    private int initialPipelines;
+    private final AtomicInteger initializedPipelines = new AtomicInteger();
+    // Consecutive failed attempts to start a pipeline after which the stream gives up if it is not yet ready
+    private int pipelineStartAttempts;
+    private final long startTime = System.currentTimeMillis();
+    // Documents each pipeline processes before it serves requests, cycling through the corpus
+    private List<UIMAStreamRequest> warmupCorpus = null;
+    private int warmupDocuments = 0;
+    private final AtomicLong warmupNanos = new AtomicLong();
+    private final AtomicLong warmedUpPipelines = new AtomicLong();
+    private final AtomicLong coldLatencyNanos = new AtomicLong();
+    private final AtomicLong coldDocuments = new AtomicLong();
+    private final AtomicLong warmLatencyNanos = new AtomicLong();
+    private final AtomicLong warmDocuments = new AtomicLong();
+    // Serialized results by request content, or null if caching is disabled
+    private ResultCache resultCache = null;
+    private final StreamMetrics metrics = new StreamMetrics();
 
     public UIMAStreamImpl(String streamName, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc) throws ResourceInitializationException {
+        this(streamName, metadataDesc, pipelineDesc, null);
+    }
+
+    /**
+     * @param warmupCorpus (Optional) Representative documents to warm up each pipeline with before it serves requests.
+     *                     If absent, pipelines are only warmed up with a built-in synthetic corpus if
+     *                     -Duima.streams.%pipeline%.warmup is set
+     */
+    public UIMAStreamImpl(String streamName, AnalysisEngineDescription metadataDesc, AnalysisEngineDescription pipelineDesc,
+                          List<UIMAStreamRequest> warmupCorpus) throws ResourceInitializationException {
         logger = Logger.getLogger("UIMA-Stream-" + streamName);
         name = streamName;
         int numPipelines = 1;
         String threadProp;
-        if ((threadProp = System.getProperty("uima.streams.%pipeline%.threads".replace("%pipeline%", name))) == null) {
+        if ((threadProp = System.getProperty("uima.streams.%pipeline%.threads".replace("%pipeline%", name))) == null
+                && System.getProperty("uima.streams.%pipeline%.threads.max".replace("%pipeline%", name)) == null) {
             logger.log(Level.WARNING, "The number of pipeline threads for this stream was not set via " +
                     "-Duima.server.%pipeline%.threads. Please set the value of this property as your CPU allows "
                             .replace("%pipeline%", name) + "to improve performance");
-        } else {
+        } else if (threadProp != null) {
             try {
                 numPipelines = Integer.valueOf(threadProp);
             } catch (NumberFormatException e) {
@@ -56,93 +141,315 @@ public class UIMAStreamImpl implements UIMAStream {
                         "-Duima.server.%pipeline%.threads, ".replace("%pipeline%", name) + threadProp + ", could not be parsed as an integer.");
             }
         }
-        logger.log(Level.INFO, "Starting UIMA Stream " + name + " with " + numPipelines + " pipeline threads");
+        // Without explicit bounds the stream is fixed at its configured number of threads
+        minPipelines = Math.max(1, getIntProperty("threads.min", "minimum number of pipeline threads", numPipelines));
+        maxPipelines = Math.max(minPipelines, getIntProperty("threads.max", "maximum number of pipeline threads",
+                Math.max(numPipelines, minPipelines)));
+        numPipelines = Math.min(maxPipelines, Math.max(minPipelines, numPipelines));
+        initialPipelines = numPipelines;
+        int casPoolSize = getIntProperty("caspool", "number of CASes to pool", maxPipelines * 2);
+        if (casPoolSize < maxPipelines) {
+            logger.log(Level.WARNING, "The CAS pool for this stream must contain at least one CAS per pipeline thread, " +
+                    "increasing it to " + maxPipelines);
+            casPoolSize = maxPipelines;
+        }
+        int serializerThreads = Math.max(0, getIntProperty("serializers.threads", "number of serializer threads",
+                Runtime.getRuntime().availableProcessors()));
+        int queueCapacity = getIntProperty("capacity", "maximum number of queued requests", Integer.MAX_VALUE);
+        if (queueCapacity < 1) {
+            logger.log(Level.WARNING, "The queue capacity for this stream must be at least 1, ignoring");
+            queueCapacity = Integer.MAX_VALUE;
+        }
+        Map<Priority, Integer> laneWeights = new EnumMap<>(Priority.class);
+        laneWeights.put(Priority.INTERACTIVE, getIntProperty("weights.interactive", "weight of the interactive lane", 4));
+        laneWeights.put(Priority.BULK, getIntProperty("weights.bulk", "weight of the bulk lane", 1));
+        pipelineStartAttempts = Math.max(1, getIntProperty("start.attempts", "number of attempts to start a pipeline", 5));
+        boolean hasCorpus = warmupCorpus != null && !warmupCorpus.isEmpty();
+        warmupDocuments = Math.max(0, getIntProperty("warmup", "number of warmup documents per pipeline",
+                hasCorpus ? warmupCorpus.size() : 0));
+        if (warmupDocuments > 0) {
+            this.warmupCorpus = hasCorpus ? new ArrayList<>(warmupCorpus) : WarmupCorpus.generate(Math.min(warmupDocuments, 100));
+        }
+        logger.log(Level.INFO, "Starting UIMA Stream " + name + " with " + numPipelines + " pipeline threads"
+                + (minPipelines == maxPipelines ? "" : " (scaling between " + minPipelines + " and " + maxPipelines + ")") + ", "
+                + casPoolSize + " pooled CASes and a queue capacity of "
+                + (queueCapacity == Integer.MAX_VALUE ? "unbounded" : String.valueOf(queueCapacity))
+                + " per lane, with lane weights " + laneWeights
+                + (warmupDocuments > 0 ? ", warming up each pipeline with " + warmupDocuments + " "
+                + (hasCorpus ? "" : "synthetic ") + "documents" : "")
+                + (serializerThreads > 0 ? ", serializing results on up to " + serializerThreads + " threads"
+                : ", serializing results on the pipeline threads"));
 
-        // We don't really need to use a thread pool for this initial application, but it is included as there is
-        // no real overhead cost and is way easier to expand on in the future
-        threadPool = Executors.newFixedThreadPool(numPipelines, new ThreadFactoryBuilder().setNameFormat("UIMA-" + streamName + "-%d").build());
+        boolean coalesce = Boolean.parseBoolean(System.getProperty("uima.streams.%pipeline%.coalesce".replace("%pipeline%", name), "true"));
+        queue = new StreamQueue(name, queueCapacity, laneWeights, coalesce);
+        if (COMMON.STREAM_QUEUES.putIfAbsent(name, queue) != null) {
+            throw new IllegalStateException("A previous instance of UIMA Stream " + name + " has not yet finished shutting down");
+        }
+        JobReaper.ensureStarted();
+        if (Boolean.parseBoolean(System.getProperty("uima.streams.%pipeline%.sharedresources".replace("%pipeline%", name), "true"))) {
+            sharedResMgr = new SharedResourceManager();
+        } else {
+            logger.log(Level.INFO, "Resources will not be shared between the pipelines of UIMA Stream " + name);
+        }
+        casPool = new StreamCasPool(name, casPoolSize);
+        COMMON.CAS_POOLS.put(name, casPool);
+        COMMON.STREAM_METRICS.put(name, metrics);
+        // Pipelines come and go as the stream is resized, so threads are created on demand rather than fixed up front
+        threadPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("UIMA-" + streamName + "-%d").build());
+        if (serializerThreads > 0) {
+            // Queued serializations each hold a CAS, so the CAS pool already bounds how many can pile up. Once shut
+            // down, serializations of the last documents still in the pipelines run on the pipeline threads instead
+            serializerPool = new ThreadPoolExecutor(serializerThreads, serializerThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder().setNameFormat("UIMA-" + streamName + "-Serializer-%d").setDaemon(true).build(),
+                    (task, executor) -> task.run());
+            serializerPool.allowCoreThreadTimeOut(true);
+        }
         try {
-            CollectionReaderDescription STREAM_READER_DESC
-                    = CollectionReaderFactory.createReaderDescription(BlockingStreamCollectionReader.class,
+            readerDesc = CollectionReaderFactory.createReaderDescription(BlockingStreamCollectionReader.class,
                     BlockingStreamCollectionReader.PARAM_QUEUENAME, name);
             AggregateBuilder pipelineBuilder = new AggregateBuilder();
             if (metadataDesc != null) {
                 pipelineBuilder.add(metadataDesc);
             }
             pipelineBuilder.add(pipelineDesc);
-            pipelineBuilder.add(AnalysisEngineFactory.createEngineDescription(StreamResultHandlerCasConsumer.class));
-            for (int i = 0; i < numPipelines; i++) {
-                initPipeline(threadPool, STREAM_READER_DESC, pipelineBuilder.createAggregateDescription());
+            pipelineBuilder.add(AnalysisEngineFactory.createEngineDescription(StreamResultHandlerCasConsumer.class,
+                    StreamResultHandlerCasConsumer.PARAM_STREAMNAME, name));
+            aggregateDesc = pipelineBuilder.createAggregateDescription();
+            int cacheMegabytes = getIntProperty("cache", "result cache size in megabytes", 0);
+            if (cacheMegabytes > 0) {
+                resultCache = new ResultCache(name, getPipelineVersion(), cacheMegabytes * 1024L * 1024L);
+                logger.log(Level.INFO, "Caching up to " + cacheMegabytes + "MB of results for UIMA Stream " + name);
+            }
+            scaleTo(numPipelines);
+            if (minPipelines < maxPipelines) {
+                autoscaler = new PipelineAutoscaler(this,
+                        getIntProperty("autoscale.interval", "autoscaling interval", 5000),
+                        getIntProperty("autoscale.target", "autoscaling target backlog drain time", 1000));
             }
         } catch (Throwable e) {
+            queue.shutdownNow();
+            COMMON.CAS_POOLS.remove(name, casPool);
+            COMMON.STREAM_METRICS.remove(name, metrics);
             threadPool.shutdownNow();
+            shutdownSerializers();
+            destroySharedResourcesOnTermination();
             throw e;
         }
     }
 
 
-    private void initPipeline(ExecutorService threadPool, CollectionReaderDescription STREAM_READER_DESC, AnalysisEngineDescription PIPELINE_DESC) {
+    /**
+     * @return An identifier of the pipeline run by this stream for the purposes of result caching, either set via
+     * -Duima.streams.%pipeline%.cache.version or derived from the pipeline's descriptor
+     */
+    private String getPipelineVersion() {
+        String version = System.getProperty("uima.streams.%pipeline%.cache.version".replace("%pipeline%", name));
+        if (version != null) {
+            return version;
+        }
+        try {
+            StringWriter xml = new StringWriter();
+            aggregateDesc.toXML(xml);
+            return Hashing.sha256().hashString(xml.toString(), StandardCharsets.UTF_8).toString();
+        } catch (SAXException | IOException e) {
+            throw new IllegalStateException("Could not determine the pipeline version of UIMA Stream " + name
+                    + " for result caching, set -Duima.streams." + name + ".cache.version instead", e);
+        }
+    }
+
+    private int getIntProperty(String setting, String description, int defaultValue) {
+        String key = "uima.streams.%pipeline%.".replace("%pipeline%", name) + setting;
+        String prop = System.getProperty(key);
+        if (prop == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.valueOf(prop);
+        } catch (NumberFormatException e) {
+            logger.log(Level.SEVERE, "The " + description + " set in -D" + key + ", " + prop
+                    + ", could not be parsed as an integer.");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Starts or retires pipelines until this stream runs the given number of them. Retired pipelines finish the
+     * document they are currently processing before shutting down
+     */
+    synchronized void scaleTo(int pipelines) {
+        if (queue.getState() != State.OPEN && targetPipelines > 0) {
+            // Pipelines are already draining away, nothing to scale
+            return;
+        }
+        if (pipelines > targetPipelines) {
+            for (int i = targetPipelines; i < pipelines; i++) {
+                runningPipelines.incrementAndGet();
+                // Each pipeline gets its own copy of the description, as UIMA may modify it during instantiation
+                initPipeline((AnalysisEngineDescription) aggregateDesc.clone(), 0);
+            }
+        } else if (pipelines < targetPipelines) {
+            queue.retire(targetPipelines - pipelines);
+        }
+        if (pipelines != targetPipelines && targetPipelines > 0) {
+            logger.log(Level.INFO, "Scaling UIMA Stream " + name + " from " + targetPipelines + " to " + pipelines + " pipelines");
+        }
+        targetPipelines = pipelines;
+    }
+
+    /**
+     * @param failedStarts The number of consecutive times this pipeline has already failed to start, each doubling
+     *                     the time waited before trying again
+     */
+    private void initPipeline(AnalysisEngineDescription PIPELINE_DESC, int failedStarts) {
         threadPool.submit(() -> {
+            if (failedStarts > 0) {
+                try {
+                    Thread.sleep(Math.min(MAX_RESTART_BACKOFF_MILLIS, 1000L << Math.min(failedStarts - 1, 16)));
+                } catch (InterruptedException e) {
+                    // Force-shutdown while backing off
+                    runningPipelines.decrementAndGet();
+                    return;
+                }
+                if (threadPool.isShutdown()) {
+                    runningPipelines.decrementAndGet();
+                    return;
+                }
+            }
+            AtomicBoolean started = new AtomicBoolean();
             try {
                 runPipeline(
-                        STREAM_READER_DESC,
+                        started,
+                        readerDesc,
                         PIPELINE_DESC);
+                // Retired, or the stream shut down
+                runningPipelines.decrementAndGet();
             } catch (Throwable e) {
                 logger.log(Level.SEVERE, "Error during pipeline operation", e);
-                initPipeline(threadPool, STREAM_READER_DESC, PIPELINE_DESC);
+                if (threadPool.isShutdown()) {
+                    runningPipelines.decrementAndGet();
+                } else if (!started.get() && failedStarts + 1 >= pipelineStartAttempts && !ready.isDone()) {
+                    // The stream never came up, so retrying any longer would only leave its requests waiting forever
+                    runningPipelines.decrementAndGet();
+                    if (ready.completeExceptionally(new IllegalStateException("A pipeline of UIMA Stream " + name
+                            + " failed to start " + pipelineStartAttempts + " times in a row", e))) {
+                        logger.log(Level.SEVERE, "Giving up on starting UIMA Stream " + name);
+                        shutdownNow();
+                    }
+                } else {
+                    metrics.pipelineRestarted();
+                    initPipeline(PIPELINE_DESC, started.get() ? 0 : failedStarts + 1);
+                }
             }
         });
     }
 
     /**
      * Clone of {@link SimplePipeline#runPipeline(CollectionReader, AnalysisEngine...)}
-     * with added exception handling to complete futures exceptionally if an error is encountered
+     * with added exception handling to complete futures exceptionally if an error is encountered, and with each
+     * document processed in a CAS borrowed from this stream's {@link StreamCasPool}
+     *
+     * @param started Set once the pipeline has initialized and begins to serve requests
      */
-    public static void runPipeline(final CollectionReaderDescription readerDesc,
-                                   final AnalysisEngineDescription... descs) throws UIMAException, IOException {
+    private void runPipeline(final AtomicBoolean started, final CollectionReaderDescription readerDesc,
+                             final AnalysisEngineDescription... descs) throws UIMAException, IOException {
 
         CollectionReader reader = null;
         AnalysisEngine aae = null;
+        boolean starting = true;
+        startingPipelines.incrementAndGet();
         try {
-            ResourceManager resMgr = ResourceManagerFactory.newResourceManager();
-
-            // Create the components
-            reader = UIMAFramework.produceCollectionReader(readerDesc, resMgr, null);
+            ResourceManager resMgr = sharedResMgr == null ? ResourceManagerFactory.newResourceManager() : sharedResMgr;
 
             // Create AAE
             final AnalysisEngineDescription aaeDesc = createEngineDescription(descs);
 
-            // Instantiate AAE
-            aae = UIMAFramework.produceAnalysisEngine(aaeDesc, resMgr, null);
+            if (sharedResMgr != null && !sharedResourcesLoaded) {
+                // The first pipeline to start loads the shared resources on its own, after which all other pipelines
+                // find them already loaded and instantiate in parallel
+                synchronized (sharedResourcesLock) {
+                    if (!sharedResourcesLoaded) {
+                        long start = System.currentTimeMillis();
+                        reader = UIMAFramework.produceCollectionReader(readerDesc, resMgr, null);
+                        aae = UIMAFramework.produceAnalysisEngine(aaeDesc, resMgr, null);
+                        sharedResourcesLoaded = true;
+                        logger.log(Level.INFO, "Loaded shared resources for UIMA Stream " + name + " in "
+                                + (System.currentTimeMillis() - start) + "ms");
+                    }
+                }
+            }
+            if (aae == null) {
+                // Create the components
+                reader = UIMAFramework.produceCollectionReader(readerDesc, resMgr, null);
+
+                // Instantiate AAE
+                aae = UIMAFramework.produceAnalysisEngine(aaeDesc, resMgr, null);
+            }
 
-            // Create CAS from merged metadata
-            final CAS cas = CasCreationUtils.createCas(asList(reader.getMetaData(), aae.getMetaData()),
-                    null, resMgr);
-            reader.typeSystemInit(cas.getTypeSystem());
+            // Create pooled CASes from merged metadata, if not already done by another pipeline of this stream
+            reader.typeSystemInit(casPool.initialize(asList(reader.getMetaData(), aae.getMetaData()), resMgr));
+            if (warmupDocuments > 0) {
+                warmUp(aae);
+                // Only real documents should count towards the time spent in each annotator
+                aae.getManagementInterface().resetStats();
+            }
+            metrics.registerPipeline(aae);
+            startingPipelines.decrementAndGet();
+            starting = false;
+            started.set(true);
+            if (initializedPipelines.incrementAndGet() == initialPipelines && ready.complete(this)) {
+                logger.log(Level.INFO, "UIMA Stream " + name + " is ready after " + (System.currentTimeMillis() - startTime) + "ms");
+            }
 
             // Process
-            while (reader.hasNext()) {
-                reader.getNext(cas);
+            while (true) {
+                final CAS cas;
                 try {
-                    aae.process(cas);
-                } catch (Throwable e) {
-                    StreamingMetadata meta = JCasUtil.selectSingle(cas.getJCas(), StreamingMetadata.class);
-                    if (meta == null) {
-                        return;
+                    cas = casPool.acquire();
+                } catch (InterruptedException e) {
+                    // Pipeline thread is being force-shutdown
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    if (!reader.hasNext()) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    reader.getNext(cas);
+                    Job<?> current = ((BlockingStreamCollectionReader) reader).getCurrentWork();
+                    if (current.getTimings() != null) {
+                        current.startTiming(aae, start);
                     }
-                    UUID jobID = UUID.fromString(meta.getJobID());
-                    CompletableFuture<CAS> ret = COMMON.CURR_JOBS.remove(jobID);
-                    if (ret == null) {
-                        return; // The relevant completable future for the job is already gone, this should not happen but we don't want to crash the pipeline either TODO log
+                    try {
+                        aae.process(cas);
+                        long elapsed = System.nanoTime() - start;
+                        serviceNanos.addAndGet(elapsed);
+                        metrics.getProcessTime().record(elapsed);
+                        servicedDocuments.incrementAndGet();
+                    } catch (Throwable e) {
+                        StreamingMetadata meta = JCasUtil.selectSingle(cas.getJCas(), StreamingMetadata.class);
+                        Job<?> job = meta == null ? null : COMMON.CURR_JOBS.remove(UUID.fromString(meta.getJobID()));
+                        if (job != null) {
+                            job.completeExceptionally(e);
+                        }
+                        // Otherwise the job was already abandoned and reaped, so nobody is waiting on the failure
                     }
-                    ret.completeExceptionally(e);
+                } finally {
+                    // If the result was handed off, the CAS only returns to the pool once the caller also closes it
+                    casPool.release(cas);
                 }
-                cas.reset();
             }
 
             // Signal end of processing
             aae.collectionProcessComplete();
         } finally {
+            if (starting) {
+                startingPipelines.decrementAndGet();
+            }
+            if (aae != null) {
+                metrics.unregisterPipeline(aae);
+            }
             // Destroy
             LifeCycleUtil.destroy(reader);
             LifeCycleUtil.destroy(aae);
@@ -150,51 +457,447 @@ public class UIMAStreamImpl implements UIMAStream {
     }
 
 
+    /**
+     * Runs this stream's warmup corpus through a freshly initialized pipeline, so that class loading, JIT compilation
+     * and lazily loaded resources are done with before the pipeline takes its first real request. The first and last
+     * tenth of the warmup are timed to record how much the pipeline sped up
+     */
+    private void warmUp(AnalysisEngine aae) throws UIMAException {
+        int slice = Math.max(1, warmupDocuments / 10);
+        long cold = 0, coldCount = 0, warm = 0, warmCount = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < warmupDocuments; i++) {
+            if (queue.getState() != State.OPEN) {
+                // Shutting down, no point in warming up any further
+                return;
+            }
+            UIMAStreamRequest document = warmupCorpus.get(i % warmupCorpus.size());
+            final CAS cas;
+            try {
+                cas = casPool.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                JCas jcas = cas.getJCas();
+                jcas.setDocumentText(document.getDocument());
+                StreamingMetadata meta = new StreamingMetadata(jcas);
+                // Never registered as a job, so its result is discarded at the end of the pipeline
+                meta.setJobID(UUID.randomUUID().toString());
+                if (document.getMetadata() != null) {
+                    meta.setMetadata(document.getMetadata());
+                }
+                meta.addToIndexes();
+                long docStart = System.nanoTime();
+                aae.process(cas);
+                long elapsed = System.nanoTime() - docStart;
+                if (i < slice) {
+                    cold += elapsed;
+                    coldCount++;
+                }
+                if (i >= warmupDocuments - slice) {
+                    warm += elapsed;
+                    warmCount++;
+                }
+            } catch (AnalysisEngineProcessException | RuntimeException e) {
+                logger.log(Level.WARNING, "Warmup document " + i + " failed for UIMA Stream " + name, e);
+            } finally {
+                casPool.release(cas);
+            }
+        }
+        long duration = System.nanoTime() - start;
+        warmupNanos.addAndGet(duration);
+        warmedUpPipelines.incrementAndGet();
+        coldLatencyNanos.addAndGet(cold);
+        coldDocuments.addAndGet(coldCount);
+        warmLatencyNanos.addAndGet(warm);
+        warmDocuments.addAndGet(warmCount);
+        logger.log(Level.INFO, String.format("Warmed up a pipeline of UIMA Stream %s with %d documents in %dms, "
+                        + "per-document latency went from %.2fms to %.2fms", name, warmupDocuments,
+                TimeUnit.NANOSECONDS.toMillis(duration), meanMillis(cold, coldCount), meanMillis(warm, warmCount)));
+    }
+
+    private static double meanMillis(long nanos, long count) {
+        return count == 0 ? -1 : nanos / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
     @Override
-    public CompletableFuture<CAS> submit(String document, String metadata) {
-        return BlockingStreamCollectionReader.submitMessage(name, UUID.randomUUID(), document, metadata);
+    public CompletableFuture<UIMAStreamResult> submit(UIMAStreamRequest request) {
+        return BlockingStreamCollectionReader.submitMessage(queue, new CasJob(UUID.randomUUID(), request));
     }
 
     @Override
-    public void shutdown() {
-        logger.log(Level.INFO, name + " UIMA Stream is no longer accepting new requests");
-        BlockingStreamCollectionReader.shutdownQueue();
-        threadPool.shutdown();
-        while (true) {
-            try {
-                if (threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
-                    logger.log(Level.INFO, "All UIMA Pipelines for UIMA Stream " + name + " have been shut down");
-                    break;
-                }
+    public CompletableFuture<Map<String, JsonNode>> submit(UIMAStreamRequest request,
+                                                           Map<String, UIMANLPResultSerializer> serializers) {
+        return submitSerializing(request, serializers, job -> BlockingStreamCollectionReader.submitMessage(queue, job));
+    }
 
-            } catch (InterruptedException e) {
-                logger.log(Level.SEVERE, "Shutdown interrupted for UIMA Stream " + name, e);
+    @Override
+    public CompletableFuture<UIMAStreamResult> trySubmit(UIMAStreamRequest request) {
+        return BlockingStreamCollectionReader.trySubmitMessage(queue, new CasJob(UUID.randomUUID(), request));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, JsonNode>> trySubmit(UIMAStreamRequest request,
+                                                              Map<String, UIMANLPResultSerializer> serializers) {
+        return submitSerializing(request, serializers, job -> BlockingStreamCollectionReader.trySubmitMessage(queue, job));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, CompletableFuture<JsonNode>>> trySubmitProgressively(UIMAStreamRequest request,
+                                                                                            Map<String, UIMANLPResultSerializer> serializers) {
+        ProgressiveSerializingJob job = new ProgressiveSerializingJob(UUID.randomUUID(), request, serializers, serializerPool);
+        if (resultCache == null || queue.getState() != State.OPEN) {
+            return BlockingStreamCollectionReader.trySubmitMessage(queue, job);
+        }
+        HashCode key = resultCache.key(request, serializers);
+        Map<String, JsonNode> cached = request.getTimings() == null ? resultCache.get(key) : null;
+        if (cached != null) {
+            Map<String, CompletableFuture<JsonNode>> results = new LinkedHashMap<>();
+            cached.forEach((serializer, result) -> results.put(serializer, CompletableFuture.completedFuture(result)));
+            return CompletableFuture.completedFuture(results);
+        }
+        CompletableFuture<Map<String, CompletableFuture<JsonNode>>> ret = BlockingStreamCollectionReader.trySubmitMessage(queue, job);
+        // Only cached once every serializer has succeeded
+        ret.thenAccept(serializing -> CompletableFuture.allOf(serializing.values().toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> {
+                    Map<String, JsonNode> results = new LinkedHashMap<>();
+                    serializing.forEach((serializer, result) -> results.put(serializer, result.join()));
+                    resultCache.put(key, results);
+                }));
+        return ret;
+    }
+
+    /**
+     * Answers the request from the result cache if possible, otherwise submits it as a job and caches its result
+     */
+    private CompletableFuture<Map<String, JsonNode>> submitSerializing(UIMAStreamRequest request,
+                                                                       Map<String, UIMANLPResultSerializer> serializers,
+                                                                       Function<SerializingJob, CompletableFuture<Map<String, JsonNode>>> submitter) {
+        // Streams that are shutting down reject requests outright, even those that could be answered from the cache
+        if (resultCache == null || queue.getState() != State.OPEN) {
+            return submitter.apply(new SerializingJob(UUID.randomUUID(), request, serializers, serializerPool));
+        }
+        HashCode key = resultCache.key(request, serializers);
+        // Timed requests must reflect a pass through the pipeline, though their results are still cached for others
+        Map<String, JsonNode> cached = request.getTimings() == null ? resultCache.get(key) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Map<String, JsonNode>> ret = submitter.apply(new SerializingJob(UUID.randomUUID(), request, serializers, serializerPool));
+        ret.thenAccept(results -> resultCache.put(key, results));
+        return ret;
+    }
+
+    @Override
+    public UIMABatchResult<UIMAStreamResult> submitBatch(List<UIMAStreamRequest> requests) {
+        List<CasJob> jobs = new ArrayList<>(requests.size());
+        for (UIMAStreamRequest request : requests) {
+            jobs.add(new CasJob(UUID.randomUUID(), request));
+        }
+        return enqueueBatch(jobs);
+    }
+
+    @Override
+    public UIMABatchResult<Map<String, JsonNode>> submitBatch(List<UIMAStreamRequest> requests,
+                                                              Map<String, UIMANLPResultSerializer> serializers) {
+        if (resultCache == null || queue.getState() != State.OPEN) {
+            List<SerializingJob> jobs = new ArrayList<>(requests.size());
+            for (UIMAStreamRequest request : requests) {
+                jobs.add(new SerializingJob(UUID.randomUUID(), request, serializers, serializerPool));
             }
+            return enqueueBatch(jobs);
+        }
+        // Only documents not already in the cache are enqueued, the results of the others are filled in directly
+        List<SerializingJob> jobs = new ArrayList<>(requests.size());
+        List<CompletableFuture<Map<String, JsonNode>>> results = new ArrayList<>(requests.size());
+        for (UIMAStreamRequest request : requests) {
+            HashCode key = resultCache.key(request, serializers);
+            Map<String, JsonNode> cached = request.getTimings() == null ? resultCache.get(key) : null;
+            if (cached != null) {
+                results.add(CompletableFuture.completedFuture(cached));
+            } else {
+                SerializingJob job = new SerializingJob(UUID.randomUUID(), request, serializers, serializerPool);
+                job.getFuture().thenAccept(result -> resultCache.put(key, result));
+                jobs.add(job);
+                results.add(job.getFuture());
+            }
+        }
+        enqueueAll(jobs);
+        return new UIMABatchResult<>(results);
+    }
+
+    private <T> UIMABatchResult<T> enqueueBatch(List<? extends Job<T>> jobs) {
+        enqueueAll(jobs);
+        List<CompletableFuture<T>> results = new ArrayList<>(jobs.size());
+        for (Job<T> job : jobs) {
+            results.add(job.getFuture());
+        }
+        return new UIMABatchResult<>(results);
+    }
+
+    private void enqueueAll(List<? extends Job<?>> jobs) {
+        // A batch larger than a lane of the queue could never be admitted in one go, so split it into parts that can
+        int partSize = queue.getCapacity();
+        for (int start = 0; start < jobs.size(); start += partSize) {
+            BlockingStreamCollectionReader.submitMessages(queue, jobs.subList(start, Math.min(jobs.size(), start + partSize)));
         }
     }
 
     @Override
-    public Future<?> shutdownAsync() {
-        logger.log(Level.INFO, name + " UIMA Stream is no longer accepting new requests");
-        BlockingStreamCollectionReader.shutdownQueue();
-        threadPool.shutdown();
-        return Executors.newSingleThreadExecutor().submit(() -> {
-            while (true) {
-                try {
-                    if (threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
-                        logger.log(Level.INFO, "All UIMA Pipelines for UIMA Stream " + name + " have been shut down");
-                        return;
-                    }
-                } catch (InterruptedException e) {
-                    logger.log(Level.SEVERE, "Shutdown interrupted for UIMA Stream " + name, e);
-                }
+    public State getState() {
+        return queue.getState();
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally() && queue.getState() == State.OPEN;
+    }
+
+    @Override
+    public CompletableFuture<UIMAStream> whenReady() {
+        // Handed out as a dependent future so that callers cannot complete the original
+        return ready.thenApply(stream -> stream);
+    }
+
+    @Override
+    public void resize(int minPipelines, int maxPipelines) {
+        if (minPipelines < 1 || maxPipelines < minPipelines) {
+            throw new IllegalArgumentException("Pipeline bounds must satisfy 1 <= min <= max, got " + minPipelines + " and " + maxPipelines);
+        }
+        if (maxPipelines > casPool.getSize()) {
+            throw new IllegalArgumentException("UIMA Stream " + name + " can run at most " + casPool.getSize()
+                    + " pipelines with its CAS pool, increase -Duima.streams." + name + ".caspool to run more");
+        }
+        synchronized (this) {
+            if (queue.getState() != State.OPEN) {
+                throw new IllegalStateException("UIMA Stream " + name + " has been shut down");
             }
-        });
+            this.minPipelines = minPipelines;
+            this.maxPipelines = maxPipelines;
+            scaleTo(Math.min(maxPipelines, Math.max(minPipelines, targetPipelines)));
+            if (autoscaler == null && minPipelines < maxPipelines) {
+                autoscaler = new PipelineAutoscaler(this,
+                        getIntProperty("autoscale.interval", "autoscaling interval", 5000),
+                        getIntProperty("autoscale.target", "autoscaling target backlog drain time", 1000));
+            }
+        }
+    }
+
+    @Override
+    public int getPipelineCount() {
+        return runningPipelines.get();
+    }
+
+    /**
+     * @return The number of pipelines this stream is currently scaling towards
+     */
+    public synchronized int getTargetPipelineCount() {
+        return targetPipelines;
+    }
+
+    public int getMinPipelineCount() {
+        return minPipelines;
+    }
+
+    public int getMaxPipelineCount() {
+        return maxPipelines;
+    }
+
+    /**
+     * @return The number of pipelines that have been started but are still initializing
+     */
+    public int getStartingPipelineCount() {
+        return startingPipelines.get();
+    }
+
+    /**
+     * @return The total time pipelines have spent processing documents in nanoseconds, excluding time spent waiting
+     * for documents
+     */
+    public long getServiceNanos() {
+        return serviceNanos.get();
+    }
+
+    /**
+     * @return The total number of documents successfully processed by this stream's pipelines
+     */
+    public long getServicedDocuments() {
+        return servicedDocuments.get();
+    }
+
+    /**
+     * @return The total time pipelines have spent warming up in nanoseconds
+     */
+    public long getWarmupNanos() {
+        return warmupNanos.get();
+    }
+
+    /**
+     * @return The number of pipelines that have completed their warmup
+     */
+    public long getWarmedUpPipelines() {
+        return warmedUpPipelines.get();
+    }
+
+    /**
+     * @return The mean latency of the first tenth of each pipeline's warmup documents in milliseconds, or -1 if no
+     * pipeline has warmed up
+     */
+    public double getColdLatencyMillis() {
+        return meanMillis(coldLatencyNanos.get(), coldDocuments.get());
+    }
+
+    /**
+     * @return The mean latency of the last tenth of each pipeline's warmup documents in milliseconds, or -1 if no
+     * pipeline has warmed up
+     */
+    public double getWarmLatencyMillis() {
+        return meanMillis(warmLatencyNanos.get(), warmDocuments.get());
+    }
+
+    /**
+     * @return Hit, miss and eviction counts of this stream's result cache, or null if result caching is disabled
+     */
+    public CacheStats getResultCacheStats() {
+        return resultCache == null ? null : resultCache.getStats();
+    }
+
+    /**
+     * @return The number of results currently cached by this stream, or 0 if result caching is disabled
+     */
+    public long getResultCacheEntries() {
+        return resultCache == null ? 0 : resultCache.getEntryCount();
+    }
+
+    /**
+     * @return Timings collected from this stream's pipelines
+     */
+    public StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The job queue owned by this stream, which also exposes queue depth and drain progress metrics
+     */
+    public StreamQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * @return The pool of CASes shared by this stream's pipelines and the callers holding their results
+     */
+    public StreamCasPool getCasPool() {
+        return casPool;
+    }
+
+    @Override
+    public void shutdown() {
+        beginShutdown();
+        awaitPipelineTermination();
+    }
+
+    @Override
+    public Future<?> shutdownAsync() {
+        beginShutdown();
+        return Executors.newSingleThreadExecutor().submit(this::awaitPipelineTermination);
     }
 
     @Override
     public void shutdownNow() {
         logger.log(Level.INFO, "Force shutting down UIMA stream " + name);
+        stopAutoscaler();
+        ready.completeExceptionally(new CancellationException("UIMA Stream " + name + " was shut down before it was ready"));
+        for (Job<?> abandoned : queue.shutdownNow()) {
+            COMMON.CURR_JOBS.remove(abandoned.getId());
+            abandoned.completeExceptionally(new CancellationException("UIMA Stream " + name + " was force shut down"));
+        }
         threadPool.shutdownNow();
+        // Serializations already underway are short and their submitters are still waiting on them, so they finish
+        shutdownSerializers();
+        COMMON.CAS_POOLS.remove(name, casPool);
+        COMMON.STREAM_METRICS.remove(name, metrics);
+        destroySharedResourcesOnTermination();
+    }
+
+    /**
+     * Destroys the shared resources once the pipelines still stopping have terminated, without waiting for them
+     */
+    private void destroySharedResourcesOnTermination() {
+        if (sharedResMgr == null) {
+            return;
+        }
+        Thread destroyer = new Thread(() -> {
+            try {
+                threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                destroySharedResources();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "UIMA-" + name + "-Shutdown");
+        destroyer.setDaemon(true);
+        destroyer.start();
+    }
+
+    /**
+     * Releases the shared resources, e.g. closing the files and native state of dictionaries and models. Pipelines
+     * only destroy the resources of resource managers they created themselves, so this must be done once no
+     * pipelines are left to use them
+     */
+    private void destroySharedResources() {
+        synchronized (sharedResourcesLock) {
+            if (sharedResMgr != null) {
+                sharedResMgr.destroy();
+                sharedResMgr = null;
+            }
+        }
+    }
+
+    private void shutdownSerializers() {
+        if (serializerPool != null) {
+            serializerPool.shutdown();
+        }
+    }
+
+    private synchronized void stopAutoscaler() {
+        if (autoscaler != null) {
+            autoscaler.stop();
+            autoscaler = null;
+        }
+    }
+
+    private void beginShutdown() {
+        logger.log(Level.INFO, name + " UIMA Stream is no longer accepting new requests");
+        stopAutoscaler();
+        ready.completeExceptionally(new CancellationException("UIMA Stream " + name + " was shut down before it was ready"));
+        if (!queue.shutdown()) {
+            logger.log(Level.WARNING, "Shutting down an already shut down UIMA Stream " + name);
+        }
+        threadPool.shutdown();
+    }
+
+    private void awaitPipelineTermination() {
+        while (true) {
+            try {
+                if (threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.log(Level.INFO, "All UIMA Pipelines for UIMA Stream " + name + " have been shut down");
+                    shutdownSerializers();
+                    COMMON.CAS_POOLS.remove(name, casPool);
+                    COMMON.STREAM_METRICS.remove(name, metrics);
+                    destroySharedResources();
+                    return;
+                }
+                logger.log(Level.INFO, "UIMA Stream " + name + " is draining: " + queue.getDepth() + " queued, "
+                        + queue.getInFlight() + " in progress, " + queue.getDrainedJobs() + " completed over "
+                        + queue.getDrainDurationMillis() + "ms");
+            } catch (InterruptedException e) {
+                logger.log(Level.SEVERE, "Shutdown interrupted for UIMA Stream " + name, e);
+            }
+        }
     }
 }
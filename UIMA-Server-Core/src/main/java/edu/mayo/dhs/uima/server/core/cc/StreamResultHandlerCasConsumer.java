@@ -1,25 +1,52 @@
 package edu.mayo.dhs.uima.server.core.cc;
 
+import edu.mayo.dhs.uima.server.api.UIMAStreamResult;
 import edu.mayo.dhs.uima.server.core.internal.COMMON;
 import edu.mayo.dhs.uima.server.StreamingMetadata;
+import edu.mayo.dhs.uima.server.core.internal.Job;
+import edu.mayo.dhs.uima.server.core.internal.StreamCasPool;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
+import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
-import org.apache.uima.cas.CAS;
 import org.apache.uima.fit.component.JCasConsumer_ImplBase;
+import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.util.CasCopier;
-import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.resource.ResourceInitializationException;
 
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Handles completion of a streamed pipeline and returns the results of computation in a deep copy of the result CAS
+ * Handles completion of a streamed pipeline, either serializing results directly from the result CAS or handing the
+ * result CAS itself off to the caller. The CAS is borrowed from the stream's {@link StreamCasPool} and returns to it
+ * once both the pipeline and any caller holding a {@link UIMAStreamResult} are done with it
  */
 public class StreamResultHandlerCasConsumer extends JCasConsumer_ImplBase {
 
+    public static final String PARAM_STREAMNAME = "STREAM_NAME";
+
+    @ConfigurationParameter(name = PARAM_STREAMNAME)
+    private String STREAM_NAME;
+    private StreamCasPool CAS_POOL;
+    private StreamMetrics METRICS;
+
+    @Override
+    public void initialize(UimaContext context) throws ResourceInitializationException {
+        super.initialize(context);
+        CAS_POOL = COMMON.CAS_POOLS.get(STREAM_NAME);
+        if (CAS_POOL == null) {
+            throw new ResourceInitializationException(
+                    new IllegalStateException("No CAS pool has been registered for " + STREAM_NAME));
+        }
+        METRICS = COMMON.STREAM_METRICS.get(STREAM_NAME);
+        if (METRICS == null) {
+            throw new ResourceInitializationException(
+                    new IllegalStateException("No metrics have been registered for " + STREAM_NAME));
+        }
+    }
+
     @Override
     public void process(JCas cas) throws AnalysisEngineProcessException {
         StreamingMetadata meta = JCasUtil.selectSingle(cas, StreamingMetadata.class);
@@ -27,20 +54,19 @@ public class StreamResultHandlerCasConsumer extends JCasConsumer_ImplBase {
             throw new IllegalStateException("A job that wasn't enqueued properly somehow made its way into the pipeline!");
         }
         UUID jobID = UUID.fromString(meta.getJobID());
-        CompletableFuture<CAS> ret = COMMON.CURR_JOBS.remove(jobID);
-        if (ret == null) {
-            Logger.getLogger(StreamResultHandlerCasConsumer.class.getName()).log(Level.SEVERE, jobID + " completed prematurely with no completeablefuture");
-            return; // The relevant completable future for the job is already gone, this should not happen but we don't want to crash the pipeline either TODO log
+        Job<?> job = COMMON.CURR_JOBS.remove(jobID);
+        if (job == null) {
+            // Cancelled or timed out while processing and already reaped, nobody is waiting on the result
+            Logger.getLogger(StreamResultHandlerCasConsumer.class.getName()).log(Level.FINE, jobID + " was abandoned while in progress, discarding its result");
+            return;
         }
+        long start = System.nanoTime();
         try {
-            Logger.getLogger(StreamResultHandlerCasConsumer.class.getName()).log(Level.SEVERE, jobID + " completed! Creating copy");
-
-            CAS dest = CasCreationUtils.createCas(cas.getTypeSystem(), null, null, null);
-            CasCopier.copyCas(cas.getCas(), dest, true, false);
-            ret.complete(dest);
+            job.complete(cas.getCas(), CAS_POOL, METRICS);
         } catch (Throwable e) {
-            ret.completeExceptionally(e);
+            job.completeExceptionally(e);
         }
+        METRICS.getResultHandlingTime().record(System.nanoTime() - start);
     }
 
 }
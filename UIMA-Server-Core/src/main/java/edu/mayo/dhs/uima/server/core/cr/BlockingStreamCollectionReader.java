@@ -1,11 +1,18 @@
 package edu.mayo.dhs.uima.server.core.cr;
 
 
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamOverloadedException;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamResult;
 import edu.mayo.dhs.uima.server.core.cc.StreamResultHandlerCasConsumer;
+import edu.mayo.dhs.uima.server.core.internal.CasJob;
 import edu.mayo.dhs.uima.server.core.internal.COMMON;
 import edu.mayo.dhs.uima.server.StreamingMetadata;
+import edu.mayo.dhs.uima.server.core.internal.Job;
+import edu.mayo.dhs.uima.server.core.internal.SerializingJob;
+import edu.mayo.dhs.uima.server.core.internal.StreamQueue;
 import org.apache.uima.UimaContext;
-import org.apache.uima.cas.CAS;
 import org.apache.uima.collection.CollectionException;
 import org.apache.uima.fit.component.JCasCollectionReader_ImplBase;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
@@ -14,28 +21,27 @@ import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.util.Progress;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A collection reader implementation for UIMA that supports streamed (live) input; will continuously wait
- * until an element is available for processing in a shared queue and block otherwise, <br>
- * Jobs can be submitted via {@link #submitMessage(String, java.util.UUID, String, String)}. <br>
+ * until an element is available for processing in its stream's queue and block otherwise, <br>
+ * Jobs can be submitted via {@link #submitMessage(String, java.util.UUID, String, String)}, optionally with a
+ * {@link UIMAStream.Priority}. <br>
  * <br>
- * Streams will be shutdown upon calls to {@link #shutdownQueue()}, at which point the queue will cease accepting new items
- * and all consumer threads will quit after processing the final document in the queue.
+ * Each stream owns its own {@link StreamQueue}. Once that queue is shut down it will cease accepting new items
+ * and all consumer threads of that stream will quit after processing the final document in the queue, while other
+ * streams continue unaffected.
  */
 public class BlockingStreamCollectionReader extends JCasCollectionReader_ImplBase {
 
     public static final String PARAM_QUEUENAME = "QUEUE_NAME";
 
-    // TODO this does not support multiple streams (only multiple instances of the same stream)
-    private static final Map<String, BlockingDeque<Job>> PROCESSING_QUEUES = new ConcurrentHashMap<>();
-    private static final AtomicBoolean STREAM_OPEN = new AtomicBoolean(true);
-    private Job CURRENT_WORK = null;
-    private BlockingDeque<Job> PROCESSING_QUEUE;
+    private Job<?> CURRENT_WORK = null;
+    private StreamQueue PROCESSING_QUEUE;
     @ConfigurationParameter(name = PARAM_QUEUENAME)
     private String QUEUE_NAME;
 
@@ -43,132 +49,273 @@ public class BlockingStreamCollectionReader extends JCasCollectionReader_ImplBas
     @Override
     public void initialize(UimaContext context) throws ResourceInitializationException {
         super.initialize(context);
-        synchronized (PROCESSING_QUEUES) {
-            PROCESSING_QUEUE = PROCESSING_QUEUES.computeIfAbsent(QUEUE_NAME, (s) -> new LinkedBlockingDeque<>());
+        PROCESSING_QUEUE = COMMON.STREAM_QUEUES.get(QUEUE_NAME);
+        if (PROCESSING_QUEUE == null) {
+            throw new ResourceInitializationException(
+                    new IllegalStateException("No stream queue has been registered for " + QUEUE_NAME));
         }
     }
 
     public void getNext(JCas jCas) throws IOException, CollectionException {
-        jCas.setDocumentText(CURRENT_WORK.text);
+        jCas.setDocumentText(CURRENT_WORK.getText());
         StreamingMetadata meta = new StreamingMetadata(jCas);
-        meta.setJobID(CURRENT_WORK.id.toString());
-        if (CURRENT_WORK.metadata != null) {
-            meta.setMetadata(CURRENT_WORK.metadata);
+        meta.setJobID(CURRENT_WORK.getId().toString());
+        if (CURRENT_WORK.getMetadata() != null) {
+            meta.setMetadata(CURRENT_WORK.getMetadata());
         }
         meta.addToIndexes();
     }
 
+    /**
+     * @return The job most recently read into a CAS by this reader, which the pipeline is currently processing
+     */
+    public Job<?> getCurrentWork() {
+        return CURRENT_WORK;
+    }
+
     /**
      * This method is used by UIMA to determine when to shut down the pipeline. In normal operation, this method will
      * block until such a time as work is available in the queue, at which point it will retrieve a single item and
      * return true, indicating to UIMA that it should proceed to processing
      *
      * @return True when a document becomes available for processing and is reserved for the thread running the calling
-     * pipeline, false if there is no more work to be retrieved and {@link #shutdownQueue()} has been called
+     * pipeline, false if there is no more work to be retrieved and the stream's queue has been shut down
      */
     @Override
     public boolean hasNext() {
-        synchronized (PROCESSING_QUEUES) {
-            while ((((CURRENT_WORK = PROCESSING_QUEUE.pollFirst())) == null) && STREAM_OPEN.get()) {
-                try {
-                    PROCESSING_QUEUES.wait(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        // Being asked for the next document means the pipeline is done with the previous one
+        completeCurrentWork();
+        try {
+            // Consumers park on their own stream's queue only, so a submission to one stream never wakes (or contends
+            // with) the pipeline threads of another
+            while ((CURRENT_WORK = PROCESSING_QUEUE.take()) != null && skipAbandoned(CURRENT_WORK)) {
+                CURRENT_WORK = null;
             }
-            return CURRENT_WORK != null;
+        } catch (InterruptedException e) {
+            // Pipeline thread is being force-shutdown
+            Thread.currentThread().interrupt();
+            CURRENT_WORK = null;
         }
+        return CURRENT_WORK != null;
     }
 
     /**
-     * Submits a document to a UIMA pipeline for processing. Will block if the NLP queue is currently full until the
-     * task is successfully submitted into the queue
+     * Drops a job before it is read into a CAS if nobody is waiting on its result any longer, so that no work is
+     * spent on it
      *
-     * @param name     The queue to submit this job to
+     * @return True if the job was dropped
+     */
+    private boolean skipAbandoned(Job<?> job) {
+        long now = System.nanoTime();
+        if (!job.isAbandoned(now)) {
+            return false;
+        }
+        COMMON.CURR_JOBS.remove(job.getId(), job);
+        boolean expired = job.expire(now) > 0 || job.isExpired(now);
+        job.discard();
+        PROCESSING_QUEUE.skip(job, expired);
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        completeCurrentWork();
+        super.destroy();
+    }
+
+    private void completeCurrentWork() {
+        if (CURRENT_WORK != null) {
+            if (!CURRENT_WORK.isFinished()) {
+                // The pipeline failed before it could complete this job, don't leave the submitter waiting forever
+                COMMON.CURR_JOBS.remove(CURRENT_WORK.getId(), CURRENT_WORK);
+                CURRENT_WORK.completeExceptionally(new IllegalStateException("The pipeline processing job "
+                        + CURRENT_WORK.getId() + " terminated before completing it"));
+            }
+            PROCESSING_QUEUE.complete(CURRENT_WORK);
+            CURRENT_WORK = null;
+        }
+    }
+
+    /**
+     * Submits a document to a UIMA pipeline for processing. Will block if the stream's queue is currently full until
+     * the task is successfully submitted into the queue
+     *
+     * @param name     The name of the stream whose queue this job should be submitted to
      * @param jobID    A unique Job ID associated with this job
      * @param doc      The document to process through the UIMA pipeline
      * @param metadata A string representation of any metadata to associate with the document, that can be
      *                 manipulated and/or loaded by a subsequent annotator
      * @return A {@link CompletableFuture} object that contains methods to check on the completion
-     * of this request as well as the result. The CAS stored within this future object will be a deep copy of the CAS at
-     * the stage in which {@link StreamResultHandlerCasConsumer} is ran.<br>
+     * of this request as well as the result. The CAS stored within this future object is the CAS as it was at the
+     * stage in which {@link StreamResultHandlerCasConsumer} is ran.<br>
      * <br>
-     * A copy is returned as UIMA recycles CAS objects for sequential
-     * reads and as such consistency of data for asynchronous operations cannot be guaranteed if the original CAS is
-     * returned instead.
-     * @throws IllegalStateException    If the UIMA stream pipeline has been shut down
+     * The CAS is borrowed from the stream's CAS pool and is not recycled for other documents until the returned
+     * {@link UIMAStreamResult} is closed, so consistency of data for asynchronous operations is guaranteed until then.
+     * @throws IllegalStateException    If no stream by that name is running or it has been shut down
      * @throws IllegalArgumentException if another job with the same ID already exists in the queue
      */
-    public static CompletableFuture<CAS> submitMessage(String name, UUID jobID, String doc, String metadata) {
-        if (!STREAM_OPEN.get()) {
-            throw new IllegalStateException("Trying to submit a message for processing to a closed queue");
-        } else {
-            boolean successfulSubmit = false;
-            Job j = new Job(doc, jobID, metadata);
-            CompletableFuture<CAS> ret = new CompletableFuture<>();
-            if (COMMON.CURR_JOBS.put(jobID, ret) != null) {
-                throw new IllegalStateException("Submitted a job with a duplicate job ID!");
-            }
-            while (!successfulSubmit) {
-                try {
-                    final BlockingDeque<Job> queue = PROCESSING_QUEUES
-                            .computeIfAbsent(name, (s) -> new LinkedBlockingDeque<>());
-                    successfulSubmit = queue.offer(j, 1000, TimeUnit.MILLISECONDS);
-                    synchronized (PROCESSING_QUEUES) {
-                        PROCESSING_QUEUES.notifyAll();
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            return ret;
-        }
+    public static CompletableFuture<UIMAStreamResult> submitMessage(String name, UUID jobID, String doc, String metadata) {
+        return submitMessage(name, jobID, doc, metadata, UIMAStream.Priority.INTERACTIVE);
     }
 
     /**
-     * @return An empty progress instance - no real progress metric can be shown in the case of a stream
+     * Submits a document to a UIMA pipeline for processing in the given priority lane of the stream's queue
+     *
+     * @param priority The priority lane to queue the document in
+     * @see #submitMessage(String, UUID, String, String)
      */
-    public Progress[] getProgress() {
-        return new Progress[0];
+    public static CompletableFuture<UIMAStreamResult> submitMessage(String name, UUID jobID, String doc, String metadata,
+                                                                    UIMAStream.Priority priority) {
+        StreamQueue queue = COMMON.STREAM_QUEUES.get(name);
+        if (queue == null) {
+            throw new IllegalStateException("Trying to submit a message for processing to a closed queue");
+        }
+        return submitMessage(queue, new CasJob(jobID, new UIMAStreamRequest(doc, metadata, priority)));
     }
 
-    private static boolean isShutdown() {
-        return !STREAM_OPEN.get();
+    /**
+     * Submits a job directly to a stream's queue for processing, in the lane matching the job's priority. Will block
+     * if that lane is currently full until the job is successfully submitted into the queue. <br>
+     * <br>
+     * A {@link CasJob} completes with the CAS itself, while a {@link SerializingJob} runs its serializers directly
+     * against the result CAS within the pipeline thread so that the CAS never leaves the pipeline and is recycled as
+     * soon as serialization completes
+     *
+     * If the stream coalesces jobs and an identical {@link SerializingJob} is already in flight, the job is attached to
+     * that job instead of being enqueued, and completes from its result
+     *
+     * @param queue The queue of the stream to submit this job to
+     * @param job   The job to submit, with a unique Job ID
+     * @return The future of the job
+     * @throws IllegalStateException If the stream has been shut down or the job ID is already in use
+     */
+    public static <T> CompletableFuture<T> submitMessage(StreamQueue queue, Job<T> job) {
+        return enqueue(queue, job, true);
     }
 
     /**
-     * @return True if the threads used by this stream should be shut down - that is to say the stream is no longer
-     * accepting new jobs AND has processed all existing jobs
+     * Submits a job directly to a stream's queue for processing, failing fast instead of blocking if the lane matching
+     * the job's priority is currently full
+     *
+     * @throws UIMAStreamOverloadedException If the job's lane of the stream's queue is full
+     * @see #submitMessage(StreamQueue, Job)
      */
-    public boolean shouldTerminateThread() {
-        return isShutdown() && PROCESSING_QUEUES.getOrDefault(QUEUE_NAME, new LinkedBlockingDeque<>()).size() == 0;
+    public static <T> CompletableFuture<T> trySubmitMessage(StreamQueue queue, Job<T> job) {
+        return enqueue(queue, job, false);
     }
 
     /**
-     * Begins the shutdown process for this queue. The queue will no longer accept new jobs, although it will wait
-     * until all current enqueued jobs are processed before triggering thread termination
+     * Submits a batch of jobs directly to a stream's queue for processing in a single queue operation, blocking until
+     * there is space in the queue for the entire batch. Either all jobs are submitted or none are. Jobs identical to
+     * one already in flight are coalesced as with {@link #submitMessage(StreamQueue, Job)}
      *
-     * @throws IllegalStateException If the queue has already been shut down
+     * @param queue The queue of the stream to submit these jobs to
+     * @param jobs  The jobs to submit, each with a unique Job ID
+     * @throws IllegalStateException    If the stream has been shut down or a job ID is already in use
+     * @throws IllegalArgumentException If the batch has more jobs for a lane than the capacity of that lane
      */
-    public static void shutdownQueue() {
-        if (!STREAM_OPEN.getAndSet(false)) {
-            throw new IllegalStateException("Shutting down an already shut down queue");
+    public static void submitMessages(StreamQueue queue, List<? extends Job<?>> batch) {
+        if (queue.getState() != UIMAStream.State.OPEN) {
+            throw new IllegalStateException("Trying to submit a message for processing to a closed queue");
         }
-        synchronized (PROCESSING_QUEUES) {
-            PROCESSING_QUEUES.notifyAll();
+        List<Job<?>> jobs = new ArrayList<>(batch.size());
+        for (Job<?> job : batch) {
+            if (!queue.coalesce(job)) {
+                jobs.add(job);
+            }
+        }
+        try {
+            register(queue, jobs);
+        } catch (RuntimeException e) {
+            // Also fails any jobs that were coalesced with these in the meantime
+            for (Job<?> job : jobs) {
+                job.completeExceptionally(e);
+            }
+            throw e;
         }
     }
 
+    private static void register(StreamQueue queue, List<Job<?>> jobs) {
+        for (int i = 0; i < jobs.size(); i++) {
+            if (COMMON.CURR_JOBS.putIfAbsent(jobs.get(i).getId(), jobs.get(i)) != null) {
+                unregister(jobs.subList(0, i));
+                throw new IllegalStateException("Submitted a job with a duplicate job ID!");
+            }
+        }
+        boolean admitted;
+        try {
+            admitted = queue.putAll(jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unregister(jobs);
+            throw new IllegalStateException("Interrupted while waiting for space in the queue", e);
+        } catch (RuntimeException e) {
+            unregister(jobs);
+            throw e;
+        }
+        if (!admitted) {
+            unregister(jobs);
+            throw new IllegalStateException("Trying to submit a message for processing to a closed queue");
+        }
+    }
 
-    private static class Job {
-        String text;
-        UUID id;
-        String metadata;
+    private static void unregister(List<? extends Job<?>> jobs) {
+        for (Job<?> job : jobs) {
+            COMMON.CURR_JOBS.remove(job.getId(), job);
+        }
+    }
+
+    private static <T> CompletableFuture<T> enqueue(StreamQueue queue, Job<T> job, boolean block) {
+        if (queue.getState() != UIMAStream.State.OPEN) {
+            throw new IllegalStateException("Trying to submit a message for processing to a closed queue");
+        }
+        if (queue.coalesce(job)) {
+            return job.getFuture();
+        }
+        try {
+            register(queue, job, block);
+        } catch (RuntimeException e) {
+            // Also fails any jobs that were coalesced with this one in the meantime
+            job.completeExceptionally(e);
+            throw e;
+        }
+        return job.getFuture();
+    }
 
-        Job(String text, UUID id, String metadata) {
-            this.text = text;
-            this.id = id;
-            this.metadata = metadata;
+    private static void register(StreamQueue queue, Job<?> job, boolean block) {
+        if (COMMON.CURR_JOBS.putIfAbsent(job.getId(), job) != null) {
+            throw new IllegalStateException("Submitted a job with a duplicate job ID!");
         }
+        boolean admitted;
+        try {
+            admitted = block ? queue.put(job) : queue.offer(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            COMMON.CURR_JOBS.remove(job.getId());
+            throw new IllegalStateException("Interrupted while waiting for space in the queue", e);
+        }
+        if (!admitted) {
+            COMMON.CURR_JOBS.remove(job.getId());
+            if (queue.getState() == UIMAStream.State.OPEN) {
+                throw new UIMAStreamOverloadedException(queue.getName(), queue.getEstimatedDrainMillis());
+            }
+            // Lost a race with a shutdown of this stream
+            throw new IllegalStateException("Trying to submit a message for processing to a closed queue");
+        }
+    }
+
+    /**
+     * @return An empty progress instance - no real progress metric can be shown in the case of a stream
+     */
+    public Progress[] getProgress() {
+        return new Progress[0];
+    }
+
+    /**
+     * @return True if the threads used by this stream should be shut down - that is to say the stream is no longer
+     * accepting new jobs AND has processed all existing jobs
+     */
+    public boolean shouldTerminateThread() {
+        return PROCESSING_QUEUE.getState() != UIMAStream.State.OPEN && PROCESSING_QUEUE.getDepth() == 0;
     }
 }
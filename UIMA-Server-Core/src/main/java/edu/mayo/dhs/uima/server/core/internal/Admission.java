@@ -0,0 +1,79 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamOverloadedException;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Admits requests to a stream without ever blocking a thread on it, for front ends that would rather have requests
+ * wait than be rejected: requests for a stream that is still starting wait until it is ready, and requests that find
+ * its queue full wait on a timer and are resubmitted
+ */
+public class Admission {
+
+    // Bounds on how long a request waits before retrying a stream whose queue was full
+    private static final long MIN_RETRY_MILLIS = 10;
+    private static final long MAX_RETRY_MILLIS = 1000;
+    private static final ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("UIMA-Admission-%d").setDaemon(true).build());
+
+    /**
+     * @param stream    The stream to submit the request to
+     * @param request   The request, whose deadline also bounds how long it waits to be admitted
+     * @param trySubmit Submits the request without blocking, throwing {@link UIMAStreamOverloadedException} if the
+     *                  stream's queue is full
+     * @return The result of the request, failing with a {@link TimeoutException} if it was not admitted before its
+     * deadline. Cancelling it stops any further attempts and cancels the request if already admitted
+     */
+    public static <T> CompletableFuture<T> whenAdmitted(UIMAStream stream, UIMAStreamRequest request,
+                                                        Supplier<CompletableFuture<T>> trySubmit) {
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        stream.whenReady().whenComplete((ready, e) -> {
+            if (e != null) {
+                ret.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                admit(request, trySubmit, ret);
+            }
+        });
+        return ret;
+    }
+
+    private static <T> void admit(UIMAStreamRequest request, Supplier<CompletableFuture<T>> trySubmit,
+                                  CompletableFuture<T> ret) {
+        if (ret.isDone()) {
+            return;
+        }
+        if (request.getDeadline() != null && System.currentTimeMillis() > request.getDeadline()) {
+            ret.completeExceptionally(new TimeoutException("Request was not admitted to its stream before its timeout"));
+            return;
+        }
+        CompletableFuture<T> result;
+        try {
+            result = trySubmit.get();
+        } catch (UIMAStreamOverloadedException e) {
+            long retryAfter = Math.min(MAX_RETRY_MILLIS, Math.max(MIN_RETRY_MILLIS, e.getRetryAfterMillis()));
+            RETRIES.schedule(() -> admit(request, trySubmit, ret), retryAfter, TimeUnit.MILLISECONDS);
+            return;
+        } catch (RuntimeException e) {
+            ret.completeExceptionally(e);
+            return;
+        }
+        result.whenComplete((value, e) -> {
+            if (e != null) {
+                ret.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                ret.complete(value);
+            }
+        });
+        ret.whenComplete((value, e) -> result.cancel(false));
+    }
+}
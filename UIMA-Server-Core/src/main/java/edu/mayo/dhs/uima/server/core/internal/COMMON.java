@@ -1,18 +1,47 @@
 package edu.mayo.dhs.uima.server.core.internal;
 
-import org.apache.uima.cas.CAS;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
 
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Contains data structures shared across multiple parts of the UIMA pipeline to support streaming
  */
 public class COMMON {
     /**
-     * A Map of Job ID to their respective Completable Futures
+     * A Map of Job ID to their respective outstanding jobs
      */
-    public static Map<UUID, CompletableFuture<CAS>> CURR_JOBS = new ConcurrentHashMap<>();
+    public static Map<UUID, Job<?>> CURR_JOBS = new ConcurrentHashMap<>();
+    /**
+     * A Map of stream name to the job queue owned by the currently running stream of that name
+     */
+    public static Map<String, StreamQueue> STREAM_QUEUES = new ConcurrentHashMap<>();
+    /**
+     * A Map of stream name to the CAS pool owned by the currently running stream of that name
+     */
+    public static Map<String, StreamCasPool> CAS_POOLS = new ConcurrentHashMap<>();
+    /**
+     * A Map of stream name to the pipeline metrics of the currently running stream of that name
+     */
+    public static Map<String, StreamMetrics> STREAM_METRICS = new ConcurrentHashMap<>();
+    /**
+     * Constructs streams and enables plugins in parallel on server startup. Bounded by -Duima.server.startup.threads
+     * (by default the number of processors), and its threads exit once startup is over
+     */
+    public static ExecutorService STARTUP_POOL = createStartupPool();
+
+    private static ExecutorService createStartupPool() {
+        int threads = Math.max(1, Integer.getInteger("uima.server.startup.threads", Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("UIMA-Startup-%d").setDaemon(true).build());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 }
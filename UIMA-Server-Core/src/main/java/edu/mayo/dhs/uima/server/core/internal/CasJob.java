@@ -0,0 +1,35 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamResult;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
+import org.apache.uima.cas.CAS;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A job whose result is the processed CAS itself, handed off to the submitter without copying. Identical jobs are
+ * therefore never coalesced, as they would all share the same CAS
+ */
+public class CasJob extends Job<UIMAStreamResult> {
+
+    public CasJob(UUID id, UIMAStreamRequest request) {
+        super(id, request);
+    }
+
+    @Override
+    protected void complete(CAS cas, StreamCasPool pool, StreamMetrics metrics,
+                            List<CompletableFuture<UIMAStreamResult>> futures) {
+        recordResultHandling(System.nanoTime());
+        // Never coalesced, as the CAS is mutable and handed to the submitter as is
+        for (CompletableFuture<UIMAStreamResult> future : futures) {
+            UIMAStreamResult result = pool.handOff(cas);
+            if (!future.complete(result)) {
+                // Submitter has already given up on this job
+                result.close();
+            }
+        }
+    }
+}
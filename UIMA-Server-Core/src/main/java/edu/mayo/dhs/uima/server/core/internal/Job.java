@@ -0,0 +1,339 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamTimings;
+import edu.mayo.dhs.uima.server.core.cc.StreamResultHandlerCasConsumer;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.cas.CAS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A single document submitted to a stream for processing, alongside the future through which its result is returned.
+ * <br><br>
+ * Identical jobs submitted while this one is in flight may be {@link #attach(Job) attached} to it rather than
+ * processed separately, in which case they are completed from the result of this job. Each attached job keeps its
+ * own future and deadline, and this job is only abandoned once nobody is waiting on any of them
+ *
+ * @param <T> The type of result produced for the submitter
+ */
+public abstract class Job<T> {
+    private final String text;
+    private final UUID id;
+    private final String metadata;
+    private final UIMAStream.Priority priority;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+    private long enqueuedNanos;
+    // Only set for jobs collecting timings, so that untimed jobs pay nothing for them
+    private final UIMAStreamTimings timings;
+    private AnalysisEngine pipeline = null;
+    private Map<String, Long> annotatorBaseline = null;
+    private long processingStartNanos;
+    // Guarded by this
+    private List<Job<T>> attached = null;
+    private boolean finished = false;
+    private Runnable onFinished = null;
+
+    public Job(UUID id, UIMAStreamRequest request) {
+        this.text = request.getDocument();
+        this.id = id;
+        this.metadata = request.getMetadata();
+        this.priority = request.getPriority() == null ? UIMAStream.Priority.INTERACTIVE : request.getPriority();
+        this.hasDeadline = request.getDeadline() != null;
+        // Tracked against the monotonic clock so that wall clock adjustments cannot expire (or revive) jobs
+        this.deadlineNanos = hasDeadline
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.getDeadline() - System.currentTimeMillis())
+                : 0;
+        this.timings = request.getTimings();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getMetadata() {
+        return metadata;
+    }
+
+    public UIMAStream.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which this job was admitted to its stream's queue
+     */
+    long getEnqueuedNanos() {
+        return enqueuedNanos;
+    }
+
+    void setEnqueuedNanos(long enqueuedNanos) {
+        this.enqueuedNanos = enqueuedNanos;
+    }
+
+    public CompletableFuture<T> getFuture() {
+        return future;
+    }
+
+    /**
+     * @return The timings to fill in for the submitter, or null if none were requested
+     */
+    public UIMAStreamTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Notes that a pipeline has started processing this job, so that the time its annotators spend on it can be told
+     * apart from the time they spent on previous documents. Only called for jobs collecting timings
+     *
+     * @param pipeline   The pipeline processing this job
+     * @param startNanos The {@link System#nanoTime()} at which the pipeline picked this job up
+     */
+    public void startTiming(AnalysisEngine pipeline, long startNanos) {
+        this.pipeline = pipeline;
+        this.annotatorBaseline = StreamMetrics.getPipelineAnnotatorMillis(pipeline);
+        this.processingStartNanos = startNanos;
+    }
+
+    /**
+     * Fills in the time spent producing the result of this job, to be called by implementations right before they
+     * complete any futures
+     *
+     * @param handlingStartNanos The {@link System#nanoTime()} at which the result handling began
+     */
+    protected void recordResultHandling(long handlingStartNanos) {
+        if (timings != null) {
+            long now = System.nanoTime();
+            timings.setResultHandlingNanos(now - handlingStartNanos);
+            if (pipeline != null) {
+                timings.setProcessingNanos(now - processingStartNanos);
+            }
+        }
+    }
+
+    /**
+     * @return Whether identical jobs may be attached to this one. False by default, as only jobs whose result can be
+     * copied for each attached job may be coalesced
+     */
+    boolean isCoalescable() {
+        return false;
+    }
+
+    /**
+     * @return A key that is equal for jobs that produce identical results, used to coalesce them
+     */
+    Object getCoalescingKey() {
+        return Arrays.asList(getClass(), text, metadata, priority);
+    }
+
+    /**
+     * Attaches an identical job to this one, so that it completes from the result of this job instead of being
+     * processed itself
+     *
+     * @return False if this job has already finished or been abandoned, in which case the job was not attached
+     */
+    synchronized boolean attach(Job<T> job) {
+        if (finished || isAbandoned(System.nanoTime())) {
+            return false;
+        }
+        if (attached == null) {
+            attached = new ArrayList<>(1);
+        }
+        attached.add(job);
+        return true;
+    }
+
+    /**
+     * @param onFinished Run once this job has been completed or discarded
+     */
+    synchronized void onFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return True if this job had a deadline and it has passed
+     */
+    public boolean isExpired(long nowNanos) {
+        return hasDeadline && nowNanos - deadlineNanos > 0;
+    }
+
+    /**
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return True if nobody is waiting on the result of this job or any job attached to it any longer, either because
+     * they gave up or because their deadlines have passed
+     */
+    public synchronized boolean isAbandoned(long nowNanos) {
+        if (!future.isDone() && !isExpired(nowNanos)) {
+            return false;
+        }
+        if (attached != null) {
+            for (Job<T> job : attached) {
+                if (!job.future.isDone() && !job.isExpired(nowNanos)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the futures of this job and all jobs attached to it have completed
+     */
+    public synchronized boolean isDone() {
+        if (!future.isDone()) {
+            return false;
+        }
+        if (attached != null) {
+            for (Job<T> job : attached) {
+                if (!job.future.isDone()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True once this job has been completed by its pipeline, failed, or discarded
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Fails this job, and any jobs attached to it, whose deadlines have passed
+     *
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return The number of jobs that were failed
+     */
+    public synchronized int expire(long nowNanos) {
+        int expired = 0;
+        if (!future.isDone() && isExpired(nowNanos)) {
+            expire();
+            expired++;
+        }
+        if (attached != null) {
+            for (Job<T> job : attached) {
+                if (!job.future.isDone() && job.isExpired(nowNanos)) {
+                    job.expire();
+                    expired++;
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Fails this job because its deadline has passed
+     */
+    public void expire() {
+        future.completeExceptionally(new TimeoutException("Job " + id + " exceeded its deadline"));
+    }
+
+    /**
+     * Completes this job and all jobs attached to it from the pipeline thread, while the CAS still holds the results
+     * of processing
+     *
+     * @param cas     The CAS the document was processed in
+     * @param pool    The pool the CAS was borrowed from
+     * @param metrics The metrics of the stream processing this job
+     */
+    public void complete(CAS cas, StreamCasPool pool, StreamMetrics metrics) {
+        List<CompletableFuture<T>> waiting = finish();
+        if (!waiting.isEmpty()) {
+            if (timings != null && pipeline != null) {
+                recordAnnotators();
+            }
+            complete(cas, pool, metrics, waiting);
+        }
+    }
+
+    /**
+     * Attributes to this job the time each annotator has spent since it was picked up. Called from within the result
+     * handler at the end of the pipeline, by which point every other annotator is done with the document
+     */
+    private void recordAnnotators() {
+        Map<String, Long> annotatorMillis = StreamMetrics.getPipelineAnnotatorMillis(pipeline);
+        Iterator<Map.Entry<String, Long>> it = annotatorMillis.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> annotator = it.next();
+            if (annotator.getKey().endsWith(StreamResultHandlerCasConsumer.class.getName())) {
+                // Still running, its time is reported as result handling instead
+                it.remove();
+                continue;
+            }
+            Long baseline = annotatorBaseline.get(annotator.getKey());
+            if (baseline != null) {
+                annotator.setValue(annotator.getValue() - baseline);
+            }
+        }
+        timings.setAnnotatorMillis(annotatorMillis);
+    }
+
+    /**
+     * Produces the result of this job for each of the given futures
+     *
+     * @param futures The futures of this job and the jobs attached to it that are still waiting on a result, never
+     *                empty
+     */
+    protected abstract void complete(CAS cas, StreamCasPool pool, StreamMetrics metrics, List<CompletableFuture<T>> futures);
+
+    /**
+     * Fails this job and all jobs attached to it
+     */
+    public void completeExceptionally(Throwable t) {
+        for (CompletableFuture<T> waiting : finish()) {
+            waiting.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Marks a job nobody is waiting on any longer as finished without processing it
+     */
+    public void discard() {
+        finish();
+    }
+
+    /**
+     * @return The futures of this job and all jobs attached to it that have not yet completed
+     */
+    private List<CompletableFuture<T>> finish() {
+        List<CompletableFuture<T>> waiting;
+        Runnable callback;
+        synchronized (this) {
+            waiting = new ArrayList<>(attached == null ? 1 : attached.size() + 1);
+            if (!future.isDone()) {
+                waiting.add(future);
+            }
+            if (attached != null) {
+                for (Job<T> job : attached) {
+                    if (!job.future.isDone()) {
+                        waiting.add(job.future);
+                    }
+                }
+            }
+            callback = finished ? null : onFinished;
+            finished = true;
+        }
+        if (callback != null) {
+            callback.run();
+        }
+        return waiting;
+    }
+}
@@ -0,0 +1,67 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically sweeps {@link COMMON#CURR_JOBS} for jobs nobody is waiting on any longer: jobs whose deadline has
+ * passed are completed exceptionally, and jobs whose futures (and those of any jobs coalesced with them) have all
+ * completed, e.g. because they were cancelled by their submitters, are removed. Jobs still queued when reaped are
+ * skipped by their stream's reader without ever being processed. <br>
+ * <br>
+ * The sweep interval in milliseconds can be set via -Duima.server.reaper.interval and defaults to 1000
+ */
+public class JobReaper {
+
+    private static ScheduledExecutorService reaper = null;
+
+    /**
+     * Starts the reaper if not already running
+     */
+    public static synchronized void ensureStarted() {
+        if (reaper != null) {
+            return;
+        }
+        long interval = 1000;
+        String intervalProp = System.getProperty("uima.server.reaper.interval");
+        if (intervalProp != null) {
+            try {
+                interval = Math.max(1, Long.parseLong(intervalProp));
+            } catch (NumberFormatException e) {
+                Logger.getLogger(JobReaper.class.getName()).log(Level.SEVERE, "The job reaper interval set in " +
+                        "-Duima.server.reaper.interval, " + intervalProp + ", could not be parsed as an integer.");
+            }
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("UIMA-Job-Reaper").setDaemon(true).build());
+        reaper.scheduleWithFixedDelay(JobReaper::reap, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    static void reap() {
+        try {
+            long now = System.nanoTime();
+            int expired = 0;
+            Iterator<Job<?>> it = COMMON.CURR_JOBS.values().iterator();
+            while (it.hasNext()) {
+                Job<?> job = it.next();
+                // Jobs coalesced with this one may have their own deadlines, so this is only removed once none remain
+                expired += job.expire(now);
+                if (job.isDone()) {
+                    it.remove();
+                }
+            }
+            if (expired > 0) {
+                Logger.getLogger(JobReaper.class.getName()).log(Level.FINE, "Expired " + expired + " jobs past their deadline");
+            }
+        } catch (Throwable t) {
+            // Never let an unexpected error stop future sweeps
+            Logger.getLogger(JobReaper.class.getName()).log(Level.SEVERE, "Error while reaping stale jobs", t);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
+import org.apache.uima.cas.CAS;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link SerializingJob} whose result is handed out as soon as the document has passed through the pipeline, as a
+ * future per serializer that completes once that serializer is done, so that each result can be sent on while the
+ * others are still being serialized. Identical jobs attached to it are handed futures of their own copies of each
+ * result, completing alongside those of this job
+ */
+public class ProgressiveSerializingJob extends Job<Map<String, CompletableFuture<JsonNode>>> {
+
+    private final Map<String, UIMANLPResultSerializer> serializers;
+    private final Executor executor;
+
+    /**
+     * @param executor The executor to run serializers on, or null to run them on the pipeline thread
+     */
+    public ProgressiveSerializingJob(UUID id, UIMAStreamRequest request, Map<String, UIMANLPResultSerializer> serializers,
+                                     Executor executor) {
+        super(id, request);
+        this.serializers = serializers;
+        this.executor = executor;
+    }
+
+    @Override
+    boolean isCoalescable() {
+        return true;
+    }
+
+    @Override
+    Object getCoalescingKey() {
+        return Arrays.asList(super.getCoalescingKey(), serializers);
+    }
+
+    @Override
+    protected void complete(CAS cas, StreamCasPool pool, StreamMetrics metrics,
+                            List<CompletableFuture<Map<String, CompletableFuture<JsonNode>>>> futures) {
+        Map<String, CompletableFuture<JsonNode>> serializing =
+                SerializingJob.serializeAll(this, serializers, executor, cas, pool, metrics);
+        // Serialized once, with every coalesced job getting its own copy of each result as soon as it is ready
+        for (int i = 1; i < futures.size(); i++) {
+            Map<String, CompletableFuture<JsonNode>> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, CompletableFuture<JsonNode>> result : serializing.entrySet()) {
+                copy.put(result.getKey(), result.getValue().thenApply(node -> node == null ? null : node.deepCopy()));
+            }
+            futures.get(i).complete(copy);
+        }
+        futures.get(0).complete(serializing);
+    }
+}
@@ -0,0 +1,170 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamResult;
+import edu.mayo.dhs.uima.server.api.UIMAStreamingResultSerializer;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
+import org.apache.uima.cas.CAS;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A job whose results are serialized directly against the live CAS, so that the CAS never has to be copied. <br>
+ * <br>
+ * Serializers either run on the pipeline thread, which then recycles the CAS immediately, or on a separate executor,
+ * in parallel if there are several. In the latter case the pipeline thread moves on to its next document straight
+ * away, while the CAS is held out of the pool until every serializer is done with it
+ */
+public class SerializingJob extends Job<Map<String, JsonNode>> {
+
+    private final Map<String, UIMANLPResultSerializer> serializers;
+    private final Executor executor;
+
+    public SerializingJob(UUID id, UIMAStreamRequest request, Map<String, UIMANLPResultSerializer> serializers) {
+        this(id, request, serializers, null);
+    }
+
+    /**
+     * @param executor The executor to run serializers on, or null to run them on the pipeline thread
+     */
+    public SerializingJob(UUID id, UIMAStreamRequest request, Map<String, UIMANLPResultSerializer> serializers,
+                          Executor executor) {
+        super(id, request);
+        this.serializers = serializers;
+        this.executor = executor;
+    }
+
+    @Override
+    boolean isCoalescable() {
+        return true;
+    }
+
+    @Override
+    Object getCoalescingKey() {
+        return Arrays.asList(super.getCoalescingKey(), serializers);
+    }
+
+    @Override
+    protected void complete(CAS cas, StreamCasPool pool, StreamMetrics metrics,
+                            List<CompletableFuture<Map<String, JsonNode>>> futures) {
+        Map<String, CompletableFuture<JsonNode>> serializing = serializeAll(this, serializers, executor, cas, pool, metrics);
+        CompletableFuture.allOf(serializing.values().toArray(new CompletableFuture<?>[0])).whenComplete((done, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                for (CompletableFuture<Map<String, JsonNode>> future : futures) {
+                    future.completeExceptionally(cause);
+                }
+                return;
+            }
+            Map<String, JsonNode> results = new LinkedHashMap<>();
+            for (Map.Entry<String, CompletableFuture<JsonNode>> result : serializing.entrySet()) {
+                results.put(result.getKey(), result.getValue().join());
+            }
+            // Serialized once, with every coalesced job getting its own copy of the results
+            for (int i = 1; i < futures.size(); i++) {
+                Map<String, JsonNode> copy = new LinkedHashMap<>();
+                for (Map.Entry<String, JsonNode> result : results.entrySet()) {
+                    copy.put(result.getKey(), result.getValue() == null ? null : result.getValue().deepCopy());
+                }
+                futures.get(i).complete(copy);
+            }
+            futures.get(0).complete(results);
+        });
+    }
+
+    /**
+     * Runs serializers against the processed CAS of a job, either on the calling pipeline thread or in parallel on
+     * the given executor, in which case the CAS is held out of the pool until every serializer is done with it
+     *
+     * @param job      The job whose timings to fill in, if any
+     * @param executor The executor to run serializers on, or null to run them on the calling thread
+     * @return A future of the output of each serializer, keyed by name in the order given, which completes as soon as
+     * that serializer is done. The job's timings are filled in by the time all of them have completed
+     */
+    static Map<String, CompletableFuture<JsonNode>> serializeAll(Job<?> job, Map<String, UIMANLPResultSerializer> serializers,
+                                                                 Executor executor, CAS cas, StreamCasPool pool,
+                                                                 StreamMetrics metrics) {
+        long handlingStart = System.nanoTime();
+        List<String> names = new ArrayList<>(serializers.keySet());
+        Map<String, CompletableFuture<JsonNode>> results = new LinkedHashMap<>();
+        if (names.isEmpty()) {
+            job.recordResultHandling(handlingStart);
+            return results;
+        }
+        for (String name : names) {
+            results.put(name, new CompletableFuture<>());
+        }
+        long[] elapsed = new long[names.size()];
+        AtomicInteger remaining = new AtomicInteger(names.size());
+        UIMAStreamResult lease = executor == null ? null : pool.handOff(cas);
+        for (int i = 0; i < names.size(); i++) {
+            final int index = i;
+            Runnable task = () -> {
+                JsonNode result = null;
+                Throwable failure = null;
+                try {
+                    long start = System.nanoTime();
+                    result = serialize(serializers.get(names.get(index)), cas);
+                    elapsed[index] = System.nanoTime() - start;
+                    metrics.getSerializerTime(names.get(index)).record(elapsed[index]);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    // The last serializer to finish wraps up, before its own output is handed out
+                    if (lease != null) {
+                        lease.close();
+                    }
+                    if (job.getTimings() != null) {
+                        for (int j = 0; j < names.size(); j++) {
+                            job.getTimings().getSerializerNanos().put(names.get(j), elapsed[j]);
+                        }
+                    }
+                    job.recordResultHandling(handlingStart);
+                }
+                CompletableFuture<JsonNode> future = results.get(names.get(index));
+                if (failure == null) {
+                    future.complete(result);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            };
+            if (executor == null) {
+                task.run();
+            } else {
+                executor.execute(task);
+            }
+        }
+        return results;
+    }
+
+    private static JsonNode serialize(UIMANLPResultSerializer serializer, CAS cas) {
+        if (!(serializer instanceof UIMAStreamingResultSerializer)) {
+            return serializer.serializeNLPResult(cas);
+        }
+        // Kept as tokens, which are replayed into whichever format the result is eventually written in. Replaying
+        // does not modify the buffer, so coalesced jobs' copies can safely share it
+        TokenBuffer buffer = new TokenBuffer(null, false);
+        try {
+            ((UIMAStreamingResultSerializer) serializer).serializeNLPResult(cas, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new POJONode(buffer);
+    }
+}
@@ -0,0 +1,50 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import org.apache.uima.resource.Resource;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.impl.ResourceManager_impl;
+
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A resource manager shared by all pipelines of a stream, which can destroy the external resources it loaded once the
+ * last of those pipelines has terminated. Destroying a pipeline's analysis engine does not destroy the resources of
+ * a resource manager that the engine did not create itself, and UIMA 2.9's resource managers cannot be destroyed
+ */
+public class SharedResourceManager extends ResourceManager_impl {
+
+    private final AtomicBoolean destroyed = new AtomicBoolean();
+
+    public SharedResourceManager() throws ResourceInitializationException {
+        // Resolves classes as uimaFIT's resource managers do, via the context class loader
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            setExtensionClassPath(classLoader != null ? classLoader : getClass().getClassLoader(), "", true);
+        } catch (MalformedURLException e) {
+            throw new ResourceInitializationException(e);
+        }
+    }
+
+    /**
+     * Destroys every resource this manager has loaded, e.g. closing the files and native state of dictionaries and
+     * models. Must only be called once no pipelines are left to use them
+     */
+    public void destroy() {
+        if (destroyed.getAndSet(true)) {
+            return;
+        }
+        // The same resource may be bound under several names
+        Set<Object> resources = Collections.newSetFromMap(new IdentityHashMap<>());
+        resources.addAll(mResourceMap.values());
+        resources.addAll(mParameterizedResourceInstanceMap.values());
+        for (Object resource : resources) {
+            if (resource instanceof Resource) {
+                ((Resource) resource).destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import edu.mayo.dhs.uima.server.api.UIMAStreamResult;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.ResourceManager;
+import org.apache.uima.resource.metadata.MetaDataObject;
+import org.apache.uima.util.CasCreationUtils;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of pre-created CASes shared by all pipelines of a single stream. <br>
+ * <br>
+ * A pipeline {@link #acquire()}s a CAS before reading each document. Once processing completes, the CAS is
+ * {@link #handOff(CAS) handed off} to the caller as-is rather than copied, and only returns to the pool once both the
+ * pipeline and every caller holding it have released it.
+ */
+public class StreamCasPool {
+
+    private final String name;
+    private final int size;
+    private final BlockingQueue<Lease> free;
+    private final Map<CAS, Lease> leases = new IdentityHashMap<>();
+    private volatile CAS prototype;
+
+    public StreamCasPool(String name, int size) {
+        this.name = name;
+        this.size = size;
+        this.free = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * Creates the CASes in this pool if not already done. Only the first call has any effect
+     *
+     * @param metadata The metadata of all components of the pipeline, whose type systems will be merged
+     * @param resMgr   The resource manager to create CASes with
+     * @return The type system shared by all CASes in this pool
+     */
+    public synchronized TypeSystem initialize(Collection<? extends MetaDataObject> metadata, ResourceManager resMgr)
+            throws ResourceInitializationException {
+        if (prototype == null) {
+            CAS first = CasCreationUtils.createCas(metadata, null, resMgr);
+            register(first);
+            for (int i = 1; i < size; i++) {
+                register(CasCreationUtils.createCas(metadata, first.getTypeSystem(), null, resMgr));
+            }
+            prototype = first;
+        }
+        return prototype.getTypeSystem();
+    }
+
+    private void register(CAS cas) {
+        Lease lease = new Lease(cas);
+        leases.put(lease.cas, lease);
+        free.add(lease);
+    }
+
+    /**
+     * Borrows a CAS from the pool, blocking until one is available
+     *
+     * @return The borrowed CAS, which must later be returned via {@link #release(CAS)}
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public CAS acquire() throws InterruptedException {
+        Lease lease;
+        while ((lease = free.poll(30, TimeUnit.SECONDS)) == null) {
+            Logger.getLogger("UIMA-Stream-" + name).log(Level.WARNING, "All " + size + " CASes in the pool for " +
+                    "UIMA Stream " + name + " are in use, ensure that callers close their results. You may also " +
+                    "want to increase -Duima.streams." + name + ".caspool");
+        }
+        lease.references.set(1);
+        return lease.cas;
+    }
+
+    /**
+     * Hands a CAS currently held by a pipeline off to a caller. The CAS will not return to the pool until both the
+     * pipeline has called {@link #release(CAS)} and the caller has closed the returned result
+     *
+     * @param cas The CAS to hand off
+     * @return A result through which the caller can access and then release the CAS
+     */
+    public UIMAStreamResult handOff(CAS cas) {
+        Lease lease = lease(cas);
+        lease.references.incrementAndGet();
+        return new Handle(lease);
+    }
+
+    /**
+     * Releases the pipeline's hold on a CAS obtained from {@link #acquire()}
+     *
+     * @param cas The CAS to release
+     */
+    public void release(CAS cas) {
+        lease(cas).release();
+    }
+
+    private Lease lease(CAS cas) {
+        Lease lease = leases.get(cas.getView(CAS.NAME_DEFAULT_SOFA));
+        if (lease == null) {
+            throw new IllegalArgumentException("CAS does not belong to the pool of UIMA Stream " + name);
+        }
+        return lease;
+    }
+
+    /**
+     * @return The total number of CASes in this pool
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The number of CASes currently available to pipelines
+     */
+    public int getAvailable() {
+        return free.size();
+    }
+
+    private class Lease {
+        private final CAS cas;
+        private final AtomicInteger references = new AtomicInteger();
+
+        Lease(CAS cas) {
+            this.cas = cas.getView(CAS.NAME_DEFAULT_SOFA);
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                cas.reset();
+                free.add(this);
+            }
+        }
+    }
+
+    private static class Handle implements UIMAStreamResult {
+        private final Lease lease;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Handle(Lease lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public CAS getCas() {
+            if (closed.get()) {
+                throw new IllegalStateException("This result has already been closed and its CAS returned to the pool");
+            }
+            return lease.cas;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                lease.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.core.metrics.Histogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queue of jobs belonging to a single {@link UIMAStream}, alongside the lifecycle state of that stream. <br>
+ * <br>
+ * A queue starts out {@link UIMAStream.State#OPEN}. Once {@link #shutdown()} is called it becomes
+ * {@link UIMAStream.State#DRAINING}, rejecting new jobs while still handing out those already enqueued, and finally
+ * {@link UIMAStream.State#CLOSED} once every enqueued job has been completed via {@link #complete(Job)}. <br>
+ * <br>
+ * Jobs are queued in one lane per {@link UIMAStream.Priority}. {@link #take()} serves lanes by weighted round-robin:
+ * within each round a lane is served up to its weight in jobs before lower lanes get their turn, so higher lanes see
+ * lower latency while lower lanes are never starved. <br>
+ * <br>
+ * The number of enqueued jobs in each lane is bounded by the queue's capacity, so that a full bulk lane never causes
+ * interactive jobs to be rejected: {@link #offer(Job)} fails fast once a lane is full, while {@link #put(Job)} waits
+ * for space to become available. A batch of jobs can be enqueued at once via {@link #putAll(Collection)}, taking the
+ * queue's lock and waking its consumers only once for the whole batch. <br>
+ * <br>
+ * If coalescing is enabled, jobs identical to one already in flight can be attached to it via {@link #coalesce(Job)}
+ * instead of being enqueued, so that a burst of duplicate documents only passes through the pipeline once
+ */
+public class StreamQueue {
+
+    // How often the rate at which jobs are completed is re-sampled
+    private static final long DRAIN_RATE_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final int capacity;
+    // Guards both the enqueued jobs and the state of the queue, so that a shutdown can never race an admission
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Lane[] lanes;
+    // Consumers that should stop consuming from this queue the next time they ask for a job, guarded by the lock
+    private int retirements = 0;
+    private volatile UIMAStream.State state = UIMAStream.State.OPEN;
+    // Jobs that have been admitted but not yet completed, whether still enqueued or currently in a pipeline
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong drainedJobs = new AtomicLong();
+    private volatile long drainStartTime = -1;
+    private volatile long drainEndTime = -1;
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong expiredJobs = new AtomicLong();
+    private final AtomicLong cancelledJobs = new AtomicLong();
+    private final AtomicLong drainRateSampleTime = new AtomicLong(System.nanoTime());
+    private volatile long drainRateSampleCount = 0;
+    private volatile double drainRate = -1;
+    private final boolean coalescing;
+    // Jobs that have been registered for coalescing and not yet finished, by coalescing key
+    private final ConcurrentMap<Object, Job<?>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedJobs = new AtomicLong();
+    private final Histogram latency = new Histogram();
+
+    /**
+     * @param name     The name of the stream owning this queue
+     * @param capacity The maximum number of jobs that may be enqueued in each lane at any one time
+     * @param weights  The number of jobs served from each lane per round when several lanes have jobs waiting.
+     *                 Lanes without a weight are given a weight of 1
+     * @param coalesce Whether identical jobs submitted while one is in flight should be coalesced
+     */
+    public StreamQueue(String name, int capacity, Map<UIMAStream.Priority, Integer> weights, boolean coalesce) {
+        this.name = name;
+        this.capacity = capacity;
+        this.coalescing = coalesce;
+        UIMAStream.Priority[] priorities = UIMAStream.Priority.values();
+        this.lanes = new Lane[priorities.length];
+        for (UIMAStream.Priority priority : priorities) {
+            Integer weight = weights.get(priority);
+            lanes[priority.ordinal()] = new Lane(capacity, weight == null ? 1 : Math.max(1, weight));
+        }
+    }
+
+    /**
+     * Attaches a job to an identical job already in flight in this queue, if any, so that both are completed from a
+     * single pass through the pipeline. Only {@link Job#isCoalescable() coalescable} jobs are ever attached. Otherwise
+     * the job is registered for later identical jobs to attach to, and must then either be enqueued or failed by the
+     * caller
+     *
+     * @param job The job about to be enqueued
+     * @return True if the job was attached to another and must not be enqueued itself
+     */
+    public <T> boolean coalesce(Job<T> job) {
+        if (!coalescing || !job.isCoalescable() || job.getTimings() != null) {
+            // Timed jobs are processed on their own, so that their timings reflect a pass through the pipeline
+            return false;
+        }
+        Object key = job.getCoalescingKey();
+        while (true) {
+            Job<?> existing = inFlight.putIfAbsent(key, job);
+            if (existing == null) {
+                job.onFinished(() -> inFlight.remove(key, job));
+                return false;
+            }
+            // Keys include the type of job, so identical jobs always produce the same type of result
+            @SuppressWarnings("unchecked")
+            Job<T> identical = (Job<T>) existing;
+            if (identical.attach(job)) {
+                coalescedJobs.incrementAndGet();
+                return true;
+            }
+            // Finished or abandoned in the meantime, so take its place
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * Enqueues a job for processing if there is space in the queue, without blocking
+     *
+     * @param job The job to enqueue
+     * @return True if the job was enqueued, false if this queue is full or no longer {@link UIMAStream.State#OPEN}
+     */
+    public boolean offer(Job<?> job) {
+        Lane lane = lanes[job.getPriority().ordinal()];
+        if (!lane.slots.tryAcquire()) {
+            lane.rejectedJobs.incrementAndGet();
+            return false;
+        }
+        return admit(Collections.singletonList(job));
+    }
+
+    /**
+     * Enqueues a job for processing, waiting for space in the queue if it is currently full
+     *
+     * @param job The job to enqueue
+     * @return True if the job was enqueued, false if this queue is no longer {@link UIMAStream.State#OPEN}
+     * @throws InterruptedException If interrupted while waiting for space
+     */
+    public boolean put(Job<?> job) throws InterruptedException {
+        lanes[job.getPriority().ordinal()].slots.acquire();
+        return admit(Collections.singletonList(job));
+    }
+
+    /**
+     * Enqueues a batch of jobs for processing in a single operation, waiting for space in the queue for the entire
+     * batch if it is currently full. Either all jobs are enqueued or none are
+     *
+     * @param batch The jobs to enqueue
+     * @return True if the jobs were enqueued, false if this queue is no longer {@link UIMAStream.State#OPEN}
+     * @throws InterruptedException     If interrupted while waiting for space
+     * @throws IllegalArgumentException If the batch has more jobs for a lane than the capacity of that lane
+     */
+    public boolean putAll(Collection<? extends Job<?>> batch) throws InterruptedException {
+        int[] perLane = new int[lanes.length];
+        for (Job<?> job : batch) {
+            perLane[job.getPriority().ordinal()]++;
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            if (perLane[i] > capacity) {
+                throw new IllegalArgumentException("A batch of " + perLane[i] + " " + UIMAStream.Priority.values()[i]
+                        + " jobs can never fit in the queue for " + name + ", which has a capacity of " + capacity);
+            }
+        }
+        if (batch.isEmpty()) {
+            return state == UIMAStream.State.OPEN;
+        }
+        // Always acquired in lane order so that concurrent mixed batches cannot deadlock each other
+        for (int i = 0; i < lanes.length; i++) {
+            try {
+                lanes[i].slots.acquire(perLane[i]);
+            } catch (InterruptedException e) {
+                releaseSlots(perLane, i);
+                throw e;
+            }
+        }
+        return admit(batch);
+    }
+
+    private void releaseSlots(int[] perLane, int laneCount) {
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i].slots.release(perLane[i]);
+        }
+    }
+
+    private boolean admit(Collection<? extends Job<?>> batch) {
+        lock.lock();
+        try {
+            if (state != UIMAStream.State.OPEN) {
+                for (Job<?> job : batch) {
+                    lanes[job.getPriority().ordinal()].slots.release();
+                }
+                return false;
+            }
+            pending.addAndGet(batch.size());
+            long now = System.nanoTime();
+            for (Job<?> job : batch) {
+                job.setEnqueuedNanos(now);
+                lanes[job.getPriority().ordinal()].jobs.addLast(job);
+            }
+            // Only wake as many consumers as there is work for
+            if (batch.size() == 1) {
+                notEmpty.signal();
+            } else {
+                notEmpty.signalAll();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a job is available, picking the lane to serve by weighted round-robin
+     *
+     * @return The next job to process, or null if the queue has been shut down and fully drained or the calling
+     * consumer has been {@link #retire(int) retired}
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Job<?> take() throws InterruptedException {
+        Job<?> next;
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (retirements > 0) {
+                    retirements--;
+                    return null;
+                }
+                if ((next = poll()) != null) {
+                    break;
+                }
+                if (state != UIMAStream.State.OPEN) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        lanes[next.getPriority().ordinal()].slots.release();
+        return next;
+    }
+
+    private Job<?> poll() {
+        Lane next = nextLane();
+        if (next == null) {
+            // Every lane with jobs waiting has had its share of the current round, so start the next one
+            for (Lane lane : lanes) {
+                lane.credits = lane.weight;
+            }
+            next = nextLane();
+            if (next == null) {
+                return null;
+            }
+        }
+        next.credits--;
+        Job<?> job = next.jobs.pollFirst();
+        long wait = System.nanoTime() - job.getEnqueuedNanos();
+        next.dequeuedJobs++;
+        next.totalWaitNanos += wait;
+        next.waitTime.record(wait);
+        if (job.getTimings() != null) {
+            job.getTimings().setQueueWaitNanos(wait);
+        }
+        return job;
+    }
+
+    private Lane nextLane() {
+        for (Lane lane : lanes) {
+            if (lane.credits > 0 && !lane.jobs.isEmpty()) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retires consumers of this queue: the next given number of calls to {@link #take()} will return null, prompting
+     * the consumers making them to shut down, even while jobs remain
+     *
+     * @param consumers The number of consumers to retire
+     */
+    public void retire(int consumers) {
+        lock.lock();
+        try {
+            retirements += consumers;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a job previously returned by {@link #take()} as no longer in progress
+     *
+     * @param job The completed job
+     */
+    public void complete(Job<?> job) {
+        latency.record(System.nanoTime() - job.getEnqueuedNanos());
+        sampleDrainRate(completedJobs.incrementAndGet());
+        finish();
+    }
+
+    /**
+     * Marks a job previously returned by {@link #take()} as skipped without having been processed, either because
+     * its deadline had passed or because it was cancelled
+     *
+     * @param job     The skipped job
+     * @param expired True if the job was skipped because its deadline had passed
+     */
+    public void skip(Job<?> job, boolean expired) {
+        (expired ? expiredJobs : cancelledJobs).incrementAndGet();
+        finish();
+    }
+
+    private void finish() {
+        int remaining = pending.decrementAndGet();
+        if (state == UIMAStream.State.DRAINING) {
+            drainedJobs.incrementAndGet();
+            if (remaining == 0) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Begins draining this queue: new jobs are rejected, but all currently enqueued jobs will still be handed out
+     *
+     * @return True if the queue was open and is now draining, false if it had already been shut down
+     */
+    public boolean shutdown() {
+        lock.lock();
+        try {
+            if (state != UIMAStream.State.OPEN) {
+                return false;
+            }
+            drainStartTime = System.currentTimeMillis();
+            state = UIMAStream.State.DRAINING;
+            // Release any consumers waiting on an empty queue so that they can terminate
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (pending.get() == 0) {
+            close();
+        }
+        return true;
+    }
+
+    /**
+     * Immediately closes this queue without handing out any further jobs
+     *
+     * @return The jobs that were still enqueued and will now never be processed
+     */
+    public List<Job<?>> shutdownNow() {
+        List<Job<?>> abandoned;
+        lock.lock();
+        try {
+            if (state == UIMAStream.State.OPEN) {
+                drainStartTime = System.currentTimeMillis();
+            }
+            state = UIMAStream.State.DRAINING;
+            abandoned = new ArrayList<>();
+            for (Lane lane : lanes) {
+                lane.slots.release(lane.jobs.size());
+                abandoned.addAll(lane.jobs);
+                lane.jobs.clear();
+            }
+            pending.addAndGet(-abandoned.size());
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        close();
+        return abandoned;
+    }
+
+    private void sampleDrainRate(long completed) {
+        long now = System.nanoTime();
+        long last = drainRateSampleTime.get();
+        if (now - last < DRAIN_RATE_SAMPLE_NANOS || !drainRateSampleTime.compareAndSet(last, now)) {
+            return;
+        }
+        double sampled = (completed - drainRateSampleCount) * (double) TimeUnit.SECONDS.toNanos(1) / (now - last);
+        drainRateSampleCount = completed;
+        // Exponentially weighted so that a single slow document does not swing the estimate too far
+        drainRate = drainRate < 0 ? sampled : 0.7 * drainRate + 0.3 * sampled;
+    }
+
+    private synchronized void close() {
+        if (state == UIMAStream.State.CLOSED) {
+            return;
+        }
+        drainEndTime = System.currentTimeMillis();
+        state = UIMAStream.State.CLOSED;
+        COMMON.STREAM_QUEUES.remove(name, this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UIMAStream.State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of jobs waiting to be picked up by a pipeline
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            int depth = 0;
+            for (Lane lane : lanes) {
+                depth += lane.jobs.size();
+            }
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of jobs of the given priority waiting to be picked up by a pipeline
+     */
+    public int getDepth(UIMAStream.Priority priority) {
+        lock.lock();
+        try {
+            return lanes[priority.ordinal()].jobs.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The mean time jobs of the given priority have spent waiting in this queue before being picked up by a
+     * pipeline in milliseconds, or -1 if no such job has been picked up yet
+     */
+    public double getMeanWaitMillis(UIMAStream.Priority priority) {
+        lock.lock();
+        try {
+            Lane lane = lanes[priority.ordinal()];
+            if (lane.dequeuedJobs == 0) {
+                return -1;
+            }
+            return lane.totalWaitNanos / (double) lane.dequeuedJobs / TimeUnit.MILLISECONDS.toNanos(1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The time jobs of the given priority spent waiting in this queue before being picked up by a pipeline
+     */
+    public Histogram getWaitTime(UIMAStream.Priority priority) {
+        return lanes[priority.ordinal()].waitTime;
+    }
+
+    /**
+     * @return The time from jobs being admitted to this queue until a pipeline was done with them
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return How long the oldest job of the given priority still waiting in this queue has been waiting in
+     * milliseconds, or 0 if there is no such job
+     */
+    public long getOldestWaitMillis(UIMAStream.Priority priority) {
+        lock.lock();
+        try {
+            Job<?> oldest = lanes[priority.ordinal()].jobs.peekFirst();
+            return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.getEnqueuedNanos());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The maximum number of jobs that may be enqueued in each lane at any one time
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of jobs that were rejected because their lane of this queue was full
+     */
+    public long getRejectedJobs() {
+        long rejected = 0;
+        for (Lane lane : lanes) {
+            rejected += lane.rejectedJobs.get();
+        }
+        return rejected;
+    }
+
+    /**
+     * @return The number of jobs of the given priority that were rejected because their lane of this queue was full
+     */
+    public long getRejectedJobs(UIMAStream.Priority priority) {
+        return lanes[priority.ordinal()].rejectedJobs.get();
+    }
+
+    /**
+     * @return The recent rate at which jobs have been completed in jobs per second, or -1 if not yet known
+     */
+    public double getDrainRate() {
+        return drainRate;
+    }
+
+    /**
+     * @return An estimate of how long it will take to work through all currently enqueued jobs at the current
+     * {@link #getDrainRate() drain rate} in milliseconds, or -1 if the drain rate is not yet known
+     */
+    public long getEstimatedDrainMillis() {
+        double rate = drainRate;
+        if (rate <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(getDepth() * 1000 / rate);
+    }
+
+    /**
+     * @return The total number of jobs completed by consumers of this queue
+     */
+    public long getCompletedJobs() {
+        return completedJobs.get();
+    }
+
+    /**
+     * @return The number of jobs skipped because their deadline passed before a pipeline picked them up
+     */
+    public long getExpiredJobs() {
+        return expiredJobs.get();
+    }
+
+    /**
+     * @return The number of jobs skipped because they were cancelled before a pipeline picked them up
+     */
+    public long getCancelledJobs() {
+        return cancelledJobs.get();
+    }
+
+    /**
+     * @return The number of jobs that were attached to an identical job in flight rather than enqueued
+     */
+    public long getCoalescedJobs() {
+        return coalescedJobs.get();
+    }
+
+    /**
+     * @return The number of jobs that have been handed to a pipeline and have not yet completed
+     */
+    public int getInFlight() {
+        return Math.max(0, pending.get() - getDepth());
+    }
+
+    /**
+     * @return The number of jobs completed since draining began
+     */
+    public long getDrainedJobs() {
+        return drainedJobs.get();
+    }
+
+    /**
+     * @return How long this queue has been draining (or took to drain, if closed) in milliseconds, or -1 if
+     * it is still open
+     */
+    public long getDrainDurationMillis() {
+        if (drainStartTime < 0) {
+            return -1;
+        }
+        long end = drainEndTime < 0 ? System.currentTimeMillis() : drainEndTime;
+        return end - drainStartTime;
+    }
+
+    /**
+     * The jobs of a single priority. Everything other than the slots and rejection count is guarded by the queue's lock
+     */
+    private static class Lane {
+        private final ArrayDeque<Job<?>> jobs = new ArrayDeque<>();
+        // One permit per free slot in the lane, acquired before taking the lock so that producers waiting for space
+        // never hold up consumers
+        private final Semaphore slots;
+        private final AtomicLong rejectedJobs = new AtomicLong();
+        private final int weight;
+        private int credits;
+        private long dequeuedJobs = 0;
+        private long totalWaitNanos = 0;
+        private final Histogram waitTime = new Histogram();
+
+        Lane(int capacity, int weight) {
+            this.slots = new Semaphore(capacity);
+            this.weight = weight;
+            this.credits = weight;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A built-in corpus of synthetic documents used to warm up pipelines for which no plugin-supplied corpus is available.
+ * Documents are assembled from a fixed set of sentences into varying lengths, so that pipelines exercise both short
+ * and long inputs before serving real requests
+ */
+public class WarmupCorpus {
+
+    private static final String[] SENTENCES = {
+            "The patient is a 64 year old male presenting with chest pain and shortness of breath.",
+            "He denies fever, chills, nausea or vomiting.",
+            "Past medical history is significant for hypertension, type 2 diabetes mellitus and hyperlipidemia.",
+            "Current medications include metformin 500 mg twice daily and lisinopril 10 mg daily.",
+            "She was started on aspirin 81 mg and atorvastatin 40 mg at bedtime.",
+            "Physical examination revealed a blood pressure of 150/90 and a heart rate of 88.",
+            "Lungs were clear to auscultation bilaterally with no wheezes or rales.",
+            "An electrocardiogram showed normal sinus rhythm without acute ST changes.",
+            "Family history is notable for coronary artery disease in his father.",
+            "The patient has no known drug allergies.",
+            "Assessment: atypical chest pain, rule out acute coronary syndrome.",
+            "Plan: serial troponins, stress test in the morning and follow up with cardiology in two weeks.",
+            "She reports a 20 pack-year smoking history but quit five years ago.",
+            "MRI of the lumbar spine demonstrated mild degenerative disc disease at L4-L5.",
+            "No evidence of pneumonia, pleural effusion or pneumothorax was seen on chest x-ray."
+    };
+
+    /**
+     * @param documents The number of documents to generate
+     * @return Synthetic documents, the same for every call with the same number of documents
+     */
+    public static List<UIMAStreamRequest> generate(int documents) {
+        // Seeded so that warmups are repeatable
+        Random random = new Random(documents);
+        List<UIMAStreamRequest> ret = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            int sentences = 1 + random.nextInt(SENTENCES.length * 2);
+            StringBuilder document = new StringBuilder();
+            for (int j = 0; j < sentences; j++) {
+                if (j > 0) {
+                    document.append(j % 5 == 0 ? "\n\n" : " ");
+                }
+                document.append(SENTENCES[random.nextInt(SENTENCES.length)]);
+            }
+            ret.add(new UIMAStreamRequest(document.toString(), null));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,67 @@
+package edu.mayo.dhs.uima.server.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, cheap enough to record into from pipeline threads for every document:
+ * recording neither locks nor allocates
+ */
+public class Histogram {
+
+    /**
+     * Upper bounds of the buckets in seconds, covering a fast annotator through to a document stuck behind a backlog
+     */
+    public static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5,
+            5, 10, 30, 60, 300};
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    // One more than there are buckets, the last counting everything above the largest bound
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos The duration to record in nanoseconds
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return The number of recorded durations no longer than each of {@link #BUCKETS}, followed by the total number
+     * of recorded durations
+     */
+    public long[] getCumulativeCounts() {
+        long[] ret = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i].sum();
+            ret[i] = total;
+        }
+        return ret;
+    }
+
+    /**
+     * @return The sum of all recorded durations in seconds
+     */
+    public double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,200 @@
+package edu.mayo.dhs.uima.server.core.metrics;
+
+import com.google.common.cache.CacheStats;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.core.UIMAStreamImpl;
+import edu.mayo.dhs.uima.server.core.internal.COMMON;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Renders the metrics of a server's streams in the Prometheus text exposition format, for servers to expose to a
+ * Prometheus scraper
+ */
+public class PrometheusExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * @param streams The streams to export the metrics of
+     * @return The metrics of the given streams, alongside those shared by all streams
+     */
+    public static String export(Collection<? extends UIMAStream> streams) {
+        List<UIMAStreamImpl> impls = new ArrayList<>();
+        for (UIMAStream stream : streams) {
+            if (stream instanceof UIMAStreamImpl) {
+                impls.add((UIMAStreamImpl) stream);
+            }
+        }
+        impls.sort(Comparator.comparing(UIMAStreamImpl::getName));
+        StringBuilder out = new StringBuilder();
+
+        header(out, "uima_current_jobs", "gauge", "Jobs submitted to any stream that are queued or in progress");
+        sample(out, "uima_current_jobs", "", COMMON.CURR_JOBS.size());
+
+        gauge(out, impls, "uima_stream_ready", "Whether the stream has finished starting", s -> s.isReady() ? 1 : 0);
+        gauge(out, impls, "uima_stream_pipelines", "Pipelines currently running", UIMAStreamImpl::getPipelineCount);
+        gauge(out, impls, "uima_stream_pipelines_target", "Pipelines the stream is scaling towards",
+                UIMAStreamImpl::getTargetPipelineCount);
+        gauge(out, impls, "uima_stream_pipelines_starting", "Pipelines still initializing",
+                UIMAStreamImpl::getStartingPipelineCount);
+        counter(out, impls, "uima_stream_pipeline_restarts_total", "Pipelines restarted after failing",
+                s -> s.getMetrics().getPipelineRestarts());
+        gauge(out, impls, "uima_stream_cas_pool_available", "Pooled CASes available to pipelines",
+                s -> s.getCasPool().getAvailable());
+        gauge(out, impls, "uima_stream_cas_pool_size", "Total pooled CASes", s -> s.getCasPool().getSize());
+
+        header(out, "uima_stream_queue_depth", "gauge", "Jobs waiting in the stream's queue");
+        for (UIMAStreamImpl stream : impls) {
+            for (UIMAStream.Priority priority : UIMAStream.Priority.values()) {
+                sample(out, "uima_stream_queue_depth", labels(stream, "lane", lane(priority)),
+                        stream.getQueue().getDepth(priority));
+            }
+        }
+        gauge(out, impls, "uima_stream_queue_capacity", "Maximum jobs that may wait in each lane of the stream's queue",
+                s -> s.getQueue().getCapacity());
+        header(out, "uima_stream_rejected_total", "counter", "Jobs rejected because their lane was full");
+        for (UIMAStreamImpl stream : impls) {
+            for (UIMAStream.Priority priority : UIMAStream.Priority.values()) {
+                sample(out, "uima_stream_rejected_total", labels(stream, "lane", lane(priority)),
+                        stream.getQueue().getRejectedJobs(priority));
+            }
+        }
+        counter(out, impls, "uima_stream_completed_total", "Jobs processed by a pipeline", s -> s.getQueue().getCompletedJobs());
+        counter(out, impls, "uima_stream_expired_total", "Jobs skipped because their deadline passed",
+                s -> s.getQueue().getExpiredJobs());
+        counter(out, impls, "uima_stream_cancelled_total", "Jobs skipped because they were cancelled",
+                s -> s.getQueue().getCancelledJobs());
+        counter(out, impls, "uima_stream_coalesced_total", "Jobs attached to an identical job in flight",
+                s -> s.getQueue().getCoalescedJobs());
+
+        header(out, "uima_stream_queue_wait_seconds", "histogram", "Time jobs waited in the queue before being picked up");
+        for (UIMAStreamImpl stream : impls) {
+            for (UIMAStream.Priority priority : UIMAStream.Priority.values()) {
+                histogram(out, "uima_stream_queue_wait_seconds", labels(stream, "lane", lane(priority)),
+                        stream.getQueue().getWaitTime(priority));
+            }
+        }
+        histograms(out, impls, "uima_stream_latency_seconds", "Time from a job being queued until a pipeline was done with it",
+                s -> s.getQueue().getLatency());
+        histograms(out, impls, "uima_stream_process_seconds", "Time a pipeline spent processing each document",
+                s -> s.getMetrics().getProcessTime());
+        histograms(out, impls, "uima_stream_result_handling_seconds", "Time pipelines spent handing each result off, including serialization on the pipeline thread",
+                s -> s.getMetrics().getResultHandlingTime());
+        header(out, "uima_stream_serializer_seconds", "histogram", "Time spent running each serializer on a document");
+        for (UIMAStreamImpl stream : impls) {
+            for (Map.Entry<String, Histogram> serializer : stream.getMetrics().getSerializerTimes().entrySet()) {
+                histogram(out, "uima_stream_serializer_seconds", labels(stream, "serializer", serializer.getKey()),
+                        serializer.getValue());
+            }
+        }
+        header(out, "uima_stream_annotator_seconds_total", "counter", "Time each annotator spent processing documents");
+        for (UIMAStreamImpl stream : impls) {
+            for (Map.Entry<String, Long> annotator : stream.getMetrics().getAnnotatorMillis().entrySet()) {
+                sample(out, "uima_stream_annotator_seconds_total", labels(stream, "annotator", annotator.getKey()),
+                        annotator.getValue() / (double) TimeUnit.SECONDS.toMillis(1));
+            }
+        }
+
+        counter(out, impls, "uima_stream_warmup_seconds_total", "Time pipelines spent warming up",
+                s -> s.getWarmupNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+        header(out, "uima_stream_cache_requests_total", "counter", "Result cache lookups by outcome");
+        for (UIMAStreamImpl stream : impls) {
+            CacheStats stats = stream.getResultCacheStats();
+            if (stats != null) {
+                sample(out, "uima_stream_cache_requests_total", labels(stream, "result", "hit"), stats.hitCount());
+                sample(out, "uima_stream_cache_requests_total", labels(stream, "result", "miss"), stats.missCount());
+            }
+        }
+        header(out, "uima_stream_cache_evictions_total", "counter", "Results evicted from the result cache");
+        for (UIMAStreamImpl stream : impls) {
+            CacheStats stats = stream.getResultCacheStats();
+            if (stats != null) {
+                sample(out, "uima_stream_cache_evictions_total", labels(stream), stats.evictionCount());
+            }
+        }
+        header(out, "uima_stream_cache_entries", "gauge", "Results currently held in the result cache");
+        for (UIMAStreamImpl stream : impls) {
+            if (stream.getResultCacheStats() != null) {
+                sample(out, "uima_stream_cache_entries", labels(stream), stream.getResultCacheEntries());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, List<UIMAStreamImpl> streams, String name, String help,
+                              ToDoubleFunction<UIMAStreamImpl> value) {
+        simple(out, streams, name, "gauge", help, value);
+    }
+
+    private static void counter(StringBuilder out, List<UIMAStreamImpl> streams, String name, String help,
+                                ToDoubleFunction<UIMAStreamImpl> value) {
+        simple(out, streams, name, "counter", help, value);
+    }
+
+    private static void simple(StringBuilder out, List<UIMAStreamImpl> streams, String name, String type, String help,
+                               ToDoubleFunction<UIMAStreamImpl> value) {
+        header(out, name, type, help);
+        for (UIMAStreamImpl stream : streams) {
+            sample(out, name, labels(stream), value.applyAsDouble(stream));
+        }
+    }
+
+    private static void histograms(StringBuilder out, List<UIMAStreamImpl> streams, String name, String help,
+                                   Function<UIMAStreamImpl, Histogram> histogram) {
+        header(out, name, "histogram", help);
+        for (UIMAStreamImpl stream : streams) {
+            histogram(out, name, labels(stream), histogram.apply(stream));
+        }
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long[] counts = histogram.getCumulativeCounts();
+        // Bucket bounds are appended to whatever other labels the histogram has
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (int i = 0; i < Histogram.BUCKETS.length; i++) {
+            sample(out, name + "_bucket", prefix + "le=\"" + Histogram.BUCKETS[i] + "\"}", counts[i]);
+        }
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"}", counts[counts.length - 1]);
+        sample(out, name + "_sum", labels, histogram.getSumSeconds());
+        sample(out, name + "_count", labels, counts[counts.length - 1]);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String labels(UIMAStreamImpl stream, String... extra) {
+        StringBuilder ret = new StringBuilder("{stream=\"").append(escape(stream.getName())).append('"');
+        for (int i = 0; i + 1 < extra.length; i += 2) {
+            ret.append(',').append(extra[i]).append("=\"").append(escape(extra[i + 1])).append('"');
+        }
+        return ret.append('}').toString();
+    }
+
+    private static String lane(UIMAStream.Priority priority) {
+        return priority.name().toLowerCase();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,120 @@
+package edu.mayo.dhs.uima.server.core.metrics;
+
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineManagement;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings collected from the pipelines of a single stream. Queue-related metrics are instead kept by the stream's
+ * {@link edu.mayo.dhs.uima.server.core.internal.StreamQueue}
+ */
+public class StreamMetrics {
+
+    private final Histogram processTime = new Histogram();
+    private final Histogram resultHandlingTime = new Histogram();
+    private final ConcurrentMap<String, Histogram> serializerTimes = new ConcurrentHashMap<>();
+    private final LongAdder pipelineRestarts = new LongAdder();
+    // Per-annotator times are tracked by UIMA itself in each pipeline, so they are only gathered when asked for
+    private final Set<AnalysisEngineManagement> pipelines = ConcurrentHashMap.newKeySet();
+    // Guarded by this
+    private final Map<String, Long> retiredAnnotatorMillis = new HashMap<>();
+
+    /**
+     * @return The time pipelines spent processing each document, from reading it into a CAS until its result was
+     * handed off
+     */
+    public Histogram getProcessTime() {
+        return processTime;
+    }
+
+    /**
+     * @return The time spent handing each result off to its submitter at the end of the pipeline, including
+     * serialization if the stream serializes results on its pipeline threads
+     */
+    public Histogram getResultHandlingTime() {
+        return resultHandlingTime;
+    }
+
+    /**
+     * @param serializer The name under which a serializer's output is returned
+     * @return The time spent running that serializer on each document
+     */
+    public Histogram getSerializerTime(String serializer) {
+        Histogram ret = serializerTimes.get(serializer);
+        return ret != null ? ret : serializerTimes.computeIfAbsent(serializer, name -> new Histogram());
+    }
+
+    public Map<String, Histogram> getSerializerTimes() {
+        return new TreeMap<>(serializerTimes);
+    }
+
+    /**
+     * Counts a pipeline that failed and had to be restarted
+     */
+    public void pipelineRestarted() {
+        pipelineRestarts.increment();
+    }
+
+    public long getPipelineRestarts() {
+        return pipelineRestarts.sum();
+    }
+
+    /**
+     * Starts tracking the per-annotator times of a newly started pipeline
+     */
+    public void registerPipeline(AnalysisEngine aae) {
+        pipelines.add(aae.getManagementInterface());
+    }
+
+    /**
+     * Stops tracking a pipeline that is shutting down, retaining the time its annotators spent so far
+     */
+    public synchronized void unregisterPipeline(AnalysisEngine aae) {
+        AnalysisEngineManagement pipeline = aae.getManagementInterface();
+        if (pipelines.remove(pipeline)) {
+            addAnnotatorMillis(pipeline, "", retiredAnnotatorMillis);
+        }
+    }
+
+    /**
+     * @return The total time each annotator has spent processing documents across all pipelines of this stream in
+     * milliseconds, keyed by the path of delegate keys leading to that annotator. UIMA measures these times at
+     * millisecond resolution
+     */
+    public synchronized Map<String, Long> getAnnotatorMillis() {
+        Map<String, Long> ret = new TreeMap<>(retiredAnnotatorMillis);
+        for (AnalysisEngineManagement pipeline : pipelines) {
+            addAnnotatorMillis(pipeline, "", ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return The total time each annotator of a single pipeline has spent processing documents in milliseconds, keyed
+     * as in {@link #getAnnotatorMillis()}
+     */
+    public static Map<String, Long> getPipelineAnnotatorMillis(AnalysisEngine aae) {
+        Map<String, Long> ret = new LinkedHashMap<>();
+        addAnnotatorMillis(aae.getManagementInterface(), "", ret);
+        return ret;
+    }
+
+    private static void addAnnotatorMillis(AnalysisEngineManagement engine, String path, Map<String, Long> into) {
+        Map<String, AnalysisEngineManagement> components = engine.getComponents();
+        if (components == null || components.isEmpty()) {
+            into.merge(path.isEmpty() ? engine.getName() : path, engine.getAnalysisTime(), Long::sum);
+            return;
+        }
+        for (Map.Entry<String, AnalysisEngineManagement> component : components.entrySet()) {
+            addAnnotatorMillis(component.getValue(), path.isEmpty() ? component.getKey() : path + "/" + component.getKey(), into);
+        }
+    }
+}
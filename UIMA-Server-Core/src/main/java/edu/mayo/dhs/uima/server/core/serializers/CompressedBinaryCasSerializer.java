@@ -0,0 +1,33 @@
+package edu.mayo.dhs.uima.server.core.serializers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import edu.mayo.dhs.uima.server.api.UIMAStreamingResultSerializer;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.SerialFormat;
+import org.apache.uima.util.CasIOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Serializes the entire CAS in UIMA's compressed binary form 6, with its type system embedded so that clients can
+ * load it via {@link CasIOUtils#load(java.io.InputStream, CAS)} into any CAS without knowing the pipeline's type
+ * system in advance. <br>
+ * <br>
+ * This is typically far smaller and faster to produce than a JSON rendering of the same annotations. It is sent as
+ * raw bytes to clients accepting Smile or CBOR, and base64-encoded to clients accepting JSON
+ */
+public class CompressedBinaryCasSerializer implements UIMAStreamingResultSerializer {
+
+    /**
+     * The name this serializer is registered under by every server
+     */
+    public static final String NAME = "binarycas";
+
+    @Override
+    public void serializeNLPResult(CAS cas, JsonGenerator generator) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        CasIOUtils.save(cas, out, SerialFormat.COMPRESSED_FILTERED_TSI);
+        generator.writeBinary(out.toByteArray());
+    }
+}
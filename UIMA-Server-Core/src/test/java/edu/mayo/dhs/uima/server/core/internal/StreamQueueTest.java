@@ -0,0 +1,297 @@
+package edu.mayo.dhs.uima.server.core.internal;
+
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.core.metrics.StreamMetrics;
+import org.apache.uima.cas.CAS;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamQueueTest {
+
+    private static final UIMAStream.Priority INTERACTIVE = UIMAStream.Priority.INTERACTIVE;
+    private static final UIMAStream.Priority BULK = UIMAStream.Priority.BULK;
+
+    private final ExecutorService consumers = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        consumers.shutdownNow();
+    }
+
+    @Test
+    public void servesLanesByWeight() throws InterruptedException {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 2, 1, false);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(job("bulk" + i, BULK)));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.offer(job("interactive" + i, INTERACTIVE)));
+        }
+        StringBuilder served = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            served.append(queue.take().getPriority() == INTERACTIVE ? 'I' : 'B');
+        }
+        // Two interactive jobs per bulk job while both lanes have jobs waiting, then whatever is left
+        assertEquals("IIBIIBIIBB", served.toString());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void rejectsJobsOnceItsLaneIsFull() throws InterruptedException {
+        StreamQueue queue = queue(2, 1, 1, false);
+        assertTrue(queue.offer(job("a", BULK)));
+        assertTrue(queue.offer(job("b", BULK)));
+        assertFalse(queue.offer(job("c", BULK)));
+        assertEquals(1, queue.getRejectedJobs(BULK));
+        // A full bulk lane never holds up interactive jobs
+        assertTrue(queue.offer(job("d", INTERACTIVE)));
+        assertEquals(0, queue.getRejectedJobs(INTERACTIVE));
+
+        queue.take();
+        queue.take();
+        assertTrue(queue.offer(job("e", BULK)));
+        assertEquals(1, queue.getRejectedJobs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBatchesLargerThanALane() throws InterruptedException {
+        queue(2, 1, 1, false).putAll(jobs(3, BULK));
+    }
+
+    @Test
+    public void drainsQueuedJobsOnShutdown() throws InterruptedException {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, false);
+        COMMON.STREAM_QUEUES.put(queue.getName(), queue);
+        assertTrue(queue.putAll(jobs(2, INTERACTIVE)));
+
+        assertTrue(queue.shutdown());
+        assertFalse(queue.shutdown());
+        assertEquals(UIMAStream.State.DRAINING, queue.getState());
+        assertFalse(queue.offer(job("late", INTERACTIVE)));
+
+        Job<?> first = queue.take();
+        Job<?> second = queue.take();
+        assertNull(queue.take());
+        queue.complete(first);
+        assertEquals(UIMAStream.State.DRAINING, queue.getState());
+        queue.complete(second);
+        assertEquals(UIMAStream.State.CLOSED, queue.getState());
+        assertEquals(2, queue.getDrainedJobs());
+        assertFalse(COMMON.STREAM_QUEUES.containsKey(queue.getName()));
+    }
+
+    @Test
+    public void closesImmediatelyWhenShutDownEmpty() {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, false);
+        assertTrue(queue.shutdown());
+        assertEquals(UIMAStream.State.CLOSED, queue.getState());
+    }
+
+    @Test
+    public void abandonsQueuedJobsOnShutdownNow() throws InterruptedException {
+        StreamQueue queue = queue(2, 1, 1, false);
+        assertTrue(queue.putAll(jobs(2, BULK)));
+        Job<?> inProgress = queue.take();
+
+        List<Job<?>> abandoned = queue.shutdownNow();
+        assertEquals(1, abandoned.size());
+        assertEquals(UIMAStream.State.CLOSED, queue.getState());
+        assertEquals(0, queue.getDepth());
+        assertNull(queue.take());
+        queue.complete(inProgress);
+    }
+
+    @Test
+    public void retireWakesBlockedTakers() throws Exception {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, false);
+        CountDownLatch started = new CountDownLatch(2);
+        List<Future<Job<?>>> takers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            takers.add(consumers.submit(() -> {
+                started.countDown();
+                return queue.take();
+            }));
+        }
+        started.await();
+        queue.retire(2);
+        for (Future<Job<?>> taker : takers) {
+            assertNull(taker.get(5, TimeUnit.SECONDS));
+        }
+        // Retirements are used up, so the next consumer is served as usual
+        assertTrue(queue.offer(job("a", INTERACTIVE)));
+        assertEquals("a", queue.take().getText());
+    }
+
+    @Test
+    public void retiresConsumersEvenWhileJobsRemain() throws InterruptedException {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, false);
+        assertTrue(queue.offer(job("a", INTERACTIVE)));
+        queue.retire(1);
+        assertNull(queue.take());
+        assertEquals("a", queue.take().getText());
+    }
+
+    @Test
+    public void shutdownWakesBlockedTakers() throws Exception {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, false);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Job<?>> taker = consumers.submit(() -> {
+            started.countDown();
+            return queue.take();
+        });
+        started.await();
+        queue.shutdown();
+        assertNull(taker.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void attachesIdenticalJobsUntilFinished() throws Exception {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, true);
+        TestJob leader = job("doc", INTERACTIVE);
+        TestJob follower = job("doc", INTERACTIVE);
+        assertFalse(queue.coalesce(leader));
+        assertTrue(queue.coalesce(follower));
+        assertFalse(queue.coalesce(job("other", INTERACTIVE)));
+        assertFalse(queue.coalesce(job("doc", BULK)));
+        assertEquals(1, queue.getCoalescedJobs());
+
+        leader.complete(null, null, null);
+        assertEquals("doc", leader.getFuture().get(5, TimeUnit.SECONDS));
+        assertEquals("doc", follower.getFuture().get(5, TimeUnit.SECONDS));
+        // Finished jobs no longer take on identical ones
+        assertFalse(queue.coalesce(job("doc", INTERACTIVE)));
+    }
+
+    @Test
+    public void neverCoalescesJobsThatDoNotAllowIt() {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, true);
+        assertFalse(queue.coalesce(new TestJob("doc", INTERACTIVE, false)));
+        assertFalse(queue.coalesce(new TestJob("doc", INTERACTIVE, false)));
+
+        StreamQueue disabled = queue(Integer.MAX_VALUE, 1, 1, false);
+        assertFalse(disabled.coalesce(job("doc", INTERACTIVE)));
+        assertFalse(disabled.coalesce(job("doc", INTERACTIVE)));
+        assertEquals(0, queue.getCoalescedJobs() + disabled.getCoalescedJobs());
+    }
+
+    @Test
+    public void jobsAttachingWhileOthersFinishAreNeverLost() throws Exception {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, true);
+        BlockingQueue<TestJob> leaders = new LinkedBlockingQueue<>();
+        AtomicInteger leaderCount = new AtomicInteger();
+        List<TestJob> submitted = Collections.synchronizedList(new ArrayList<>());
+        int submitters = 4;
+        int jobsEach = 2000;
+        CountDownLatch done = new CountDownLatch(submitters);
+        for (int i = 0; i < submitters; i++) {
+            consumers.submit(() -> {
+                for (int j = 0; j < jobsEach; j++) {
+                    TestJob job = job("doc", INTERACTIVE);
+                    submitted.add(job);
+                    if (!queue.coalesce(job)) {
+                        leaderCount.incrementAndGet();
+                        leaders.add(job);
+                    }
+                }
+                done.countDown();
+            });
+        }
+        // Finishes leaders as fast as they appear, racing the submitters attaching to them
+        Future<?> finisher = consumers.submit(() -> {
+            while (done.getCount() > 0 || !leaders.isEmpty()) {
+                TestJob leader = leaders.poll(10, TimeUnit.MILLISECONDS);
+                if (leader != null) {
+                    leader.complete(null, null, null);
+                }
+            }
+            return null;
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        finisher.get(30, TimeUnit.SECONDS);
+
+        assertEquals(submitters * jobsEach, submitted.size());
+        for (TestJob job : submitted) {
+            assertEquals("doc", job.getFuture().get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(submitted.size(), leaderCount.get() + queue.getCoalescedJobs());
+    }
+
+    @Test
+    public void abandonedJobsAreReplacedRatherThanAttachedTo() {
+        StreamQueue queue = queue(Integer.MAX_VALUE, 1, 1, true);
+        TestJob leader = job("doc", INTERACTIVE);
+        assertFalse(queue.coalesce(leader));
+        leader.getFuture().cancel(false);
+
+        TestJob replacement = job("doc", INTERACTIVE);
+        assertFalse(queue.coalesce(replacement));
+        assertTrue(queue.coalesce(job("doc", INTERACTIVE)));
+        assertEquals(1, queue.getCoalescedJobs());
+    }
+
+    private static StreamQueue queue(int capacity, int interactiveWeight, int bulkWeight, boolean coalesce) {
+        Map<UIMAStream.Priority, Integer> weights = new EnumMap<>(UIMAStream.Priority.class);
+        weights.put(INTERACTIVE, interactiveWeight);
+        weights.put(BULK, bulkWeight);
+        return new StreamQueue("test-" + UUID.randomUUID(), capacity, weights, coalesce);
+    }
+
+    private static TestJob job(String document, UIMAStream.Priority priority) {
+        return new TestJob(document, priority, true);
+    }
+
+    private static List<TestJob> jobs(int count, UIMAStream.Priority priority) {
+        List<TestJob> jobs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            jobs.add(job("doc" + i, priority));
+        }
+        return jobs;
+    }
+
+    /**
+     * A job whose result is simply its document
+     */
+    private static class TestJob extends Job<String> {
+        private final boolean coalescable;
+
+        TestJob(String document, UIMAStream.Priority priority, boolean coalescable) {
+            super(UUID.randomUUID(), new UIMAStreamRequest(document, null, priority));
+            this.coalescable = coalescable;
+        }
+
+        @Override
+        boolean isCoalescable() {
+            return coalescable;
+        }
+
+        @Override
+        protected void complete(CAS cas, StreamCasPool pool, StreamMetrics metrics,
+                                List<CompletableFuture<String>> futures) {
+            for (CompletableFuture<String> future : futures) {
+                future.complete(getText());
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package edu.mayo.dhs.uima.server.embedded;
+
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.core.UIMAServerBase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A UIMA server to embed within another application, e.g. once per Spark or Flink executor, rather than to run
+ * standalone. Unlike the other servers it loads nothing from the working directory and leaves the system classloader
+ * alone: streams and serializers are registered programmatically via {@link #registerStream} and
+ * {@link #registerSerializer}, or by plugins on the application's classpath via {@link #enablePlugin}. <br>
+ * <br>
+ * Documents can be submitted to streams directly via {@link #getStream(String)}, or streamed through a
+ * {@link UIMAStreamProcessor} obtained via {@link #processor(String, String...)}
+ */
+public class UIMAEmbeddedServer extends UIMAServerBase implements AutoCloseable {
+
+    public UIMAEmbeddedServer() {
+        super(false);
+    }
+
+    @Override
+    public void start() {
+        // Nothing to serve, the embedding application calls into the server directly
+    }
+
+    /**
+     * @param streamName  The stream to process documents with
+     * @param serializers The serializers to run against every document, returned under their own names
+     * @return A new processor of documents to their serialized results
+     * @throws IllegalArgumentException If the stream or any of the serializers is not registered
+     */
+    public UIMAStreamProcessor processor(String streamName, String... serializers) {
+        return processor(streamName, UIMAStreamProcessor.DEFAULT_MAX_IN_FLIGHT, serializers);
+    }
+
+    /**
+     * @param maxInFlight The most documents the processor may have submitted to the stream and not yet emitted
+     * @see #processor(String, String...)
+     */
+    public UIMAStreamProcessor processor(String streamName, int maxInFlight, String... serializers) {
+        UIMAStream stream = getStream(streamName);
+        if (stream == null) {
+            throw new IllegalArgumentException("There is no currently running stream called " + streamName);
+        }
+        Map<String, UIMANLPResultSerializer> resolved = new LinkedHashMap<>();
+        for (String name : serializers) {
+            UIMANLPResultSerializer serializer = getSerializer(name);
+            if (serializer == null) {
+                throw new IllegalArgumentException("There is no currently registered serializer called " + name);
+            }
+            resolved.put(name, serializer);
+        }
+        return new UIMAStreamProcessor(stream, resolved, maxInFlight);
+    }
+
+    /**
+     * Gracefully shuts down every stream in parallel, blocking until their outstanding requests have completed
+     */
+    @Override
+    public void close() throws InterruptedException, ExecutionException {
+        List<Future<?>> shutdowns = new ArrayList<>();
+        for (UIMAStream stream : getStreams()) {
+            shutdowns.add(stream.shutdownAsync());
+        }
+        for (Future<?> shutdown : shutdowns) {
+            shutdown.get();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package edu.mayo.dhs.uima.server.embedded;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+
+import java.util.Map;
+
+/**
+ * A document emitted by a {@link UIMAStreamProcessor}, alongside either its results or why it failed
+ */
+public class UIMAProcessedDocument {
+    private final UIMAStreamRequest request;
+    private final Map<String, JsonNode> results;
+    private final Throwable error;
+
+    public UIMAProcessedDocument(UIMAStreamRequest request, Map<String, JsonNode> results, Throwable error) {
+        this.request = request;
+        this.results = results;
+        this.error = error;
+    }
+
+    /**
+     * @return The request as it was received by the processor
+     */
+    public UIMAStreamRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return The output of each serializer keyed by name, or null if the document failed
+     */
+    public Map<String, JsonNode> getResults() {
+        return results;
+    }
+
+    /**
+     * @return Why the document failed, e.g. a {@link java.util.concurrent.TimeoutException} if it missed its
+     * deadline, or null if it succeeded
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
@@ -0,0 +1,224 @@
+package edu.mayo.dhs.uima.server.embedded;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Reactive Streams {@link Processor} of documents to their serialized results, for slotting a stream into a
+ * streaming engine. <br>
+ * <br>
+ * Backpressure is driven by demand: documents are only requested from upstream as the subscriber requests results,
+ * and never more than {@code maxInFlight} documents are submitted to the stream and not yet emitted. Documents are
+ * emitted in the order they finish processing, which may differ from the order they were received in. A document that
+ * fails is emitted with its error rather than failing the whole stream, while an upstream error is passed on once
+ * every document received before it has been emitted. Documents are submitted via
+ * {@link UIMAStream#submitWhenAdmitted(UIMAStreamRequest, Map)}, so they wait rather than fail while the stream is
+ * starting or its queue is full. <br>
+ * <br>
+ * A processor supports a single subscriber, and cancelling its subscription cancels the documents still in flight
+ */
+public class UIMAStreamProcessor implements Processor<UIMAStreamRequest, UIMAProcessedDocument> {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final UIMAStream stream;
+    private final Map<String, UIMANLPResultSerializer> serializers;
+    private final int maxInFlight;
+
+    private final AtomicReference<Subscription> upstream = new AtomicReference<>();
+    private final AtomicReference<Subscriber<? super UIMAProcessedDocument>> downstream = new AtomicReference<>();
+    // Results requested by the subscriber and not yet emitted
+    private final AtomicLong demand = new AtomicLong();
+    private final Queue<UIMAStreamRequest> received = new ConcurrentLinkedQueue<>();
+    private final Set<CompletableFuture<Map<String, JsonNode>>> inFlight = ConcurrentHashMap.newKeySet();
+    private final Queue<UIMAProcessedDocument> done = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger drains = new AtomicInteger();
+    private volatile boolean upstreamDone = false;
+    private volatile Throwable upstreamError = null;
+    // Set if the subscriber broke the Reactive Streams contract, which is signalled in place of further results
+    private volatile Throwable subscriberError = null;
+    private volatile boolean cancelled = false;
+
+    // Documents requested from upstream and not yet emitted, only accessed while draining
+    private long outstanding = 0;
+    private boolean terminated = false;
+
+    /**
+     * @param stream      The stream to process documents with
+     * @param serializers The serializers to run against every document, keyed by the name under which their output
+     *                    should be returned
+     * @param maxInFlight The most documents that may be submitted to the stream and not yet emitted
+     */
+    public UIMAStreamProcessor(UIMAStream stream, Map<String, UIMANLPResultSerializer> serializers, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one document must be allowed in flight");
+        }
+        this.stream = stream;
+        this.serializers = serializers;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super UIMAProcessedDocument> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("A processor only supports a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    subscriberError = new IllegalArgumentException("Must request a positive number of results, got " + n);
+                    cancel();
+                    return;
+                }
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                drain();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (!upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(UIMAStreamRequest request) {
+        received.add(request);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        upstreamError = t;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Makes whatever progress is possible. Signals arrive from any thread, but only one thread drains at a time, and
+     * a thread that finds another draining leaves it to drain once more on its behalf
+     */
+    private void drain() {
+        if (drains.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (!terminated) {
+                drainOnce();
+            }
+            missed = drains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drainOnce() {
+        Subscriber<? super UIMAProcessedDocument> subscriber = downstream.get();
+        Subscription subscription = upstream.get();
+        if (cancelled) {
+            terminate(subscription);
+            if (subscriberError != null && subscriber != null) {
+                subscriber.onError(subscriberError);
+            }
+            return;
+        }
+        submitReceived();
+        if (subscriber == null) {
+            return;
+        }
+        UIMAProcessedDocument document;
+        while (demand.get() > 0 && (document = done.poll()) != null) {
+            subscriber.onNext(document);
+            outstanding--;
+            demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+        }
+        if (upstreamDone && received.isEmpty() && inFlight.isEmpty() && done.isEmpty()) {
+            terminated = true;
+            if (upstreamError != null) {
+                subscriber.onError(upstreamError);
+            } else {
+                subscriber.onComplete();
+            }
+            return;
+        }
+        long wanted = Math.min(demand.get(), maxInFlight) - outstanding;
+        if (wanted > 0 && subscription != null && !upstreamDone) {
+            outstanding += wanted;
+            subscription.request(wanted);
+        }
+    }
+
+    private void submitReceived() {
+        UIMAStreamRequest request;
+        while ((request = received.poll()) != null) {
+            CompletableFuture<Map<String, JsonNode>> result = stream.submitWhenAdmitted(request, serializers);
+            UIMAStreamRequest submitted = request;
+            inFlight.add(result);
+            result.whenComplete((serialized, e) -> {
+                if (e instanceof CompletionException && e.getCause() != null) {
+                    e = e.getCause();
+                }
+                // Queued before leaving the in-flight set, so that the processor never appears to have run dry
+                done.add(new UIMAProcessedDocument(submitted, e == null ? serialized : null, e));
+                inFlight.remove(result);
+                drain();
+            });
+        }
+    }
+
+    private void terminate(Subscription subscription) {
+        terminated = true;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        for (CompletableFuture<Map<String, JsonNode>> result : inFlight) {
+            result.cancel(false);
+        }
+        received.clear();
+        done.clear();
+    }
+}
@@ -0,0 +1,122 @@
+package edu.mayo.dhs.uima.server.grpc;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import edu.mayo.dhs.uima.server.api.UIMAStreamTimings;
+import edu.mayo.dhs.uima.server.grpc.proto.SerializedResult;
+import edu.mayo.dhs.uima.server.grpc.proto.Timings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Converts serializer output into its protobuf representation. Results are read token by token, so results of
+ * {@link edu.mayo.dhs.uima.server.api.UIMAStreamingResultSerializer}s are converted straight from their buffered
+ * tokens without first being built into a tree
+ */
+final class ProtobufResults {
+
+    private ProtobufResults() {}
+
+    /**
+     * @return The result as raw bytes if it is a single binary value, as a {@link Value} tree otherwise
+     */
+    static SerializedResult toProto(JsonNode result) {
+        try (JsonParser parser = parserFor(result)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_EMBEDDED_OBJECT && parser.getEmbeddedObject() instanceof byte[]) {
+                return SerializedResult.newBuilder()
+                        .setBinary(ByteString.copyFrom((byte[]) parser.getEmbeddedObject()))
+                        .build();
+            }
+            return SerializedResult.newBuilder().setValue(readValue(parser, token)).build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static SerializedResult error(String message) {
+        return SerializedResult.newBuilder().setError(message).build();
+    }
+
+    static Timings toProto(UIMAStreamTimings timings) {
+        return Timings.newBuilder()
+                .setQueueWaitNanos(timings.getQueueWaitNanos())
+                .setProcessingNanos(timings.getProcessingNanos())
+                .putAllAnnotatorMillis(timings.getAnnotatorMillis())
+                .setResultHandlingNanos(timings.getResultHandlingNanos())
+                .putAllSerializerNanos(timings.getSerializerNanos())
+                .build();
+    }
+
+    private static JsonParser parserFor(JsonNode node) {
+        if (node instanceof POJONode && ((POJONode) node).getPojo() instanceof TokenBuffer) {
+            return ((TokenBuffer) ((POJONode) node).getPojo()).asParser();
+        }
+        return node.traverse();
+    }
+
+    private static Value readValue(JsonParser parser, JsonToken token) throws IOException {
+        Value.Builder value = Value.newBuilder();
+        if (token == null) {
+            return value.setNullValue(NullValue.NULL_VALUE).build();
+        }
+        switch (token) {
+            case START_OBJECT:
+                Struct.Builder struct = Struct.newBuilder();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    struct.putFields(name, readValue(parser, parser.nextToken()));
+                }
+                return value.setStructValue(struct).build();
+            case START_ARRAY:
+                ListValue.Builder list = ListValue.newBuilder();
+                for (JsonToken next = parser.nextToken(); next != JsonToken.END_ARRAY; next = parser.nextToken()) {
+                    list.addValues(readValue(parser, next));
+                }
+                return value.setListValue(list).build();
+            case VALUE_STRING:
+                return value.setStringValue(parser.getText()).build();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return value.setNumberValue(parser.getDoubleValue()).build();
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return value.setBoolValue(token == JsonToken.VALUE_TRUE).build();
+            case VALUE_EMBEDDED_OBJECT:
+                return readEmbedded(parser.getEmbeddedObject());
+            default:
+                return value.setNullValue(NullValue.NULL_VALUE).build();
+        }
+    }
+
+    private static Value readEmbedded(Object embedded) throws IOException {
+        if (embedded instanceof byte[]) {
+            // Value has no binary type, so nested binary values are base64-encoded, as they would be in JSON
+            return Value.newBuilder().setStringValue(Base64Variants.getDefaultVariant().encode((byte[]) embedded)).build();
+        }
+        if (embedded instanceof TokenBuffer) {
+            try (JsonParser parser = ((TokenBuffer) embedded).asParser()) {
+                return readValue(parser, parser.nextToken());
+            }
+        }
+        if (embedded instanceof JsonNode) {
+            try (JsonParser parser = ((JsonNode) embedded).traverse()) {
+                return readValue(parser, parser.nextToken());
+            }
+        }
+        if (embedded == null) {
+            return Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+        }
+        return Value.newBuilder().setStringValue(embedded.toString()).build();
+    }
+}
@@ -0,0 +1,73 @@
+package edu.mayo.dhs.uima.server.grpc;
+
+import edu.mayo.dhs.uima.server.core.UIMAServerBase;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A UIMA server that serves its streams over gRPC, see {@code uima_stream.proto}. Clients open a single bidirectional
+ * stream and pipeline documents over it, receiving each result as soon as it is ready rather than waiting on one
+ * request at a time as REST clients would. <br>
+ * <br>
+ * Listens on -Duima.server.grpc.port (default 9090)
+ */
+public class UIMAGRPCServer extends UIMAServerBase {
+
+    private Logger logger;
+    private Server server;
+
+    @Override
+    public void start() {
+        logger = Logger.getLogger("UIMA-GRPC-Server");
+        int port = Integer.getInteger("uima.server.grpc.port", 9090);
+        server = ServerBuilder.forPort(port)
+                .addService(new UIMAStreamService(this))
+                // Documents are sent as single messages, so this bounds the size of document that can be processed
+                .maxInboundMessageSize(Integer.getInteger("uima.server.grpc.message.max", 64) * 1024 * 1024)
+                .build();
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not start the gRPC server on port " + port, e);
+        }
+        logger.log(Level.INFO, "Serving gRPC on port " + server.getPort());
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * Stops accepting new calls, giving calls in progress the given time to finish before cancelling them
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        server.shutdown();
+        if (!server.awaitTermination(timeout, unit)) {
+            server.shutdownNow();
+        }
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        server.awaitTermination();
+    }
+
+    public static void main(String... args) throws InterruptedException {
+        UIMAGRPCServer server = new UIMAGRPCServer();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.shutdown(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        server.awaitTermination();
+    }
+}
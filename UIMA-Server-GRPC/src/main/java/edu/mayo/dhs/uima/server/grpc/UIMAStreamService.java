@@ -0,0 +1,204 @@
+package edu.mayo.dhs.uima.server.grpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAServer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.grpc.proto.DocumentRequest;
+import edu.mayo.dhs.uima.server.grpc.proto.DocumentResult;
+import edu.mayo.dhs.uima.server.grpc.proto.Priority;
+import edu.mayo.dhs.uima.server.grpc.proto.SerializedResult;
+import edu.mayo.dhs.uima.server.grpc.proto.Status;
+import edu.mayo.dhs.uima.server.grpc.proto.UIMAStreamServiceGrpc;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processes documents streamed in over a single call, streaming each result back as soon as it is ready. <br>
+ * <br>
+ * Backpressure is left to gRPC's flow control: each call reads at most -Duima.server.grpc.window (default 1024)
+ * documents ahead of the results it has sent, and stops reading further documents while the client is not keeping up
+ * with reading results. Documents are submitted via {@link UIMAStream#submitWhenAdmitted(UIMAStreamRequest, Map)},
+ * so they wait rather than being rejected while their stream is starting or its queue is full
+ */
+class UIMAStreamService extends UIMAStreamServiceGrpc.UIMAStreamServiceImplBase {
+
+    private final Logger logger = Logger.getLogger("UIMA-GRPC-Server");
+    private final UIMAServer server;
+    private final int window = Math.max(1, Integer.getInteger("uima.server.grpc.window", 1024));
+
+    UIMAStreamService(UIMAServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public StreamObserver<DocumentRequest> process(StreamObserver<DocumentResult> responseObserver) {
+        return new Call((ServerCallStreamObserver<DocumentResult>) responseObserver);
+    }
+
+    /**
+     * @return The result of a document, once it has been processed or failed
+     */
+    private CompletableFuture<DocumentResult> processDocument(DocumentRequest doc) {
+        long startTime = System.currentTimeMillis();
+        DocumentResult.Builder result = DocumentResult.newBuilder().setId(doc.getId());
+        if (doc.getDocument().isEmpty() || doc.getStreamName().isEmpty() || doc.getSerializersCount() == 0) {
+            return CompletableFuture.completedFuture(result.setStatus(Status.INVALID_REQUEST)
+                    .setError("A document, stream name and at least one serializer are required").build());
+        }
+        UIMAStream stream = server.getStream(doc.getStreamName());
+        if (stream == null) {
+            return CompletableFuture.completedFuture(result.setStatus(Status.NOT_FOUND)
+                    .setError("There is no currently running stream called " + doc.getStreamName()).build());
+        }
+        Map<String, UIMANLPResultSerializer> serializers = new LinkedHashMap<>();
+        for (String name : doc.getSerializersList()) {
+            UIMANLPResultSerializer serializer = server.getSerializer(name);
+            if (serializer == null) {
+                result.putResults(name, ProtobufResults.error("There is no currently registered serializer called " + name));
+            } else {
+                serializers.put(name, serializer);
+            }
+        }
+        // Documents streamed over gRPC are typically backfills, so unless told otherwise they should not hold up
+        // interactive requests
+        UIMAStreamRequest request = new UIMAStreamRequest(doc.getDocument(), doc.getMetadata().isEmpty() ? null : doc.getMetadata(),
+                doc.getPriority() == Priority.INTERACTIVE ? UIMAStream.Priority.INTERACTIVE : UIMAStream.Priority.BULK);
+        if (doc.getTimeoutMillis() > 0) {
+            request.setTimeout(doc.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        request.setCollectTimings(doc.getTimings());
+
+        CompletableFuture<Map<String, JsonNode>> serialized = stream.submitWhenAdmitted(request, serializers);
+        CompletableFuture<DocumentResult> ret = serialized.handle((results, e) -> {
+            result.setJobDurationMillis(System.currentTimeMillis() - startTime);
+            if (e != null) {
+                return fail(result, doc, e);
+            }
+            results.forEach((name, node) -> result.putResults(name, ProtobufResults.toProto(node)));
+            if (request.getTimings() != null) {
+                result.setTimings(ProtobufResults.toProto(request.getTimings()));
+            }
+            return result.setStatus(Status.OK).build();
+        });
+        // Cancelling the result, e.g. because the call was cancelled, cancels the job
+        ret.whenComplete((r, e) -> serialized.cancel(false));
+        return ret;
+    }
+
+    private DocumentResult fail(DocumentResult.Builder result, DocumentRequest doc, Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof TimeoutException) {
+            result.setStatus(Status.TIMED_OUT);
+        } else if (e instanceof CancellationException) {
+            result.setStatus(Status.CANCELLED);
+        } else {
+            logger.log(Level.SEVERE, "Error occurred during pipeline processing or serialization of document "
+                    + doc.getId() + "!", e);
+            result.setStatus(Status.FAILED);
+        }
+        return result.setError(String.valueOf(e.getMessage())).build();
+    }
+
+    /**
+     * The documents and results of a single call
+     */
+    private class Call implements StreamObserver<DocumentRequest> {
+        private final ServerCallStreamObserver<DocumentResult> responses;
+        private final Set<CompletableFuture<DocumentResult>> inFlight = ConcurrentHashMap.newKeySet();
+        // Documents still being processed, plus one until the client has finished sending documents
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        // Documents to read once the client is ready to receive more results
+        private final AtomicInteger deferredReads = new AtomicInteger();
+        private volatile boolean cancelled = false;
+
+        Call(ServerCallStreamObserver<DocumentResult> responses) {
+            this.responses = responses;
+            responses.disableAutoInboundFlowControl();
+            responses.setOnCancelHandler(this::cancel);
+            responses.setOnReadyHandler(this::readDeferred);
+            responses.request(window);
+        }
+
+        @Override
+        public void onNext(DocumentRequest doc) {
+            outstanding.incrementAndGet();
+            CompletableFuture<DocumentResult> result = processDocument(doc);
+            inFlight.add(result);
+            result.whenComplete((r, e) -> {
+                inFlight.remove(result);
+                if (r != null) {
+                    send(r);
+                }
+                // Read a further document for the one that finished, unless results are backing up
+                deferredReads.incrementAndGet();
+                if (responses.isReady()) {
+                    readDeferred();
+                }
+                finish();
+            });
+            if (cancelled) {
+                result.cancel(false);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // The client failed the call, so there is nobody left to send results to
+            cancel();
+        }
+
+        @Override
+        public void onCompleted() {
+            finish();
+        }
+
+        private void send(DocumentResult result) {
+            synchronized (responses) {
+                if (!cancelled) {
+                    responses.onNext(result);
+                }
+            }
+        }
+
+        private void readDeferred() {
+            int reads = deferredReads.getAndSet(0);
+            if (reads > 0 && !cancelled) {
+                responses.request(reads);
+            }
+        }
+
+        private void finish() {
+            if (outstanding.decrementAndGet() == 0) {
+                synchronized (responses) {
+                    if (!cancelled) {
+                        responses.onCompleted();
+                    }
+                }
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            for (CompletableFuture<DocumentResult> result : inFlight) {
+                result.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package edu.mayo.dhs.uima.server.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.core.internal.WarmupCorpus;
+import edu.mayo.dhs.uima.server.rest.UIMARESTServer;
+import edu.mayo.dhs.uima.server.rest.models.ServerRequest;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A self-contained, open-loop load generator for {@link UIMARESTServer}. <br>
+ * <br>
+ * Boots the REST server on a local port with the plugins in the working directory's {@code plugins} folder (or targets
+ * an already running server via {@code -Dload.url}), waits for the streams under test to become ready, then sends
+ * requests on a fixed schedule regardless of how quickly they are answered, so that a slow server faces the same
+ * arrival rate real clients would subject it to. Configured via {@code -Dload.*} system properties, see the module's
+ * README
+ */
+public class LoadTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private final Logger logger = Logger.getLogger("UIMA-Load-Test");
+
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "50"));
+    private final boolean poisson = !"uniform".equalsIgnoreCase(System.getProperty("load.arrivals", "poisson"));
+    private final int warmupSeconds = Integer.getInteger("load.warmup", 10);
+    private final int durationSeconds = Integer.getInteger("load.duration", 60);
+    private final int connections = Integer.getInteger("load.connections", 256);
+    private final int documentMedian = Integer.getInteger("load.document.median", 2000);
+    private final double documentSigma = Double.parseDouble(System.getProperty("load.document.sigma", "0.5"));
+    private final int documentMax = Integer.getInteger("load.document.max", 50000);
+    private final Long timeout = Long.getLong("load.timeout");
+    private final List<Target> mix = Target.parseMix(System.getProperty("load.mix", "example:example=1"));
+    private final Random random = new Random(Long.getLong("load.seed", 42));
+    private final String corpus;
+
+    public LoadTest() {
+        // Documents are cut from one long text so that generating them costs next to nothing at high rates
+        StringBuilder text = new StringBuilder();
+        for (UIMAStreamRequest document : WarmupCorpus.generate(100)) {
+            text.append(document.getDocument()).append("\n\n");
+        }
+        while (text.length() < documentMax * 2) {
+            text.append(text.toString());
+        }
+        corpus = text.toString();
+    }
+
+    public static void main(String... args) throws Exception {
+        LoadTest test = new LoadTest();
+        // The JDK only keeps 5 idle connections per server alive by default, reconnecting for most requests otherwise
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(test.connections));
+        }
+        String url = System.getProperty("load.url");
+        ConfigurableApplicationContext server = null;
+        if (url == null) {
+            server = bootServer();
+            url = "http://localhost:" + ((WebServerApplicationContext) server).getWebServer().getPort();
+        }
+        try {
+            test.awaitReady(url);
+            LoadTestResults results = test.run(url);
+            results.print(System.out, test.rate, test.durationSeconds);
+            String hgrm = System.getProperty("load.hgrm");
+            if (hgrm != null) {
+                results.writeDistributions(hgrm);
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        // Pipelines of the embedded server do not stop on their own
+        System.exit(0);
+    }
+
+    /**
+     * Starts the REST server in this JVM, first copying any plugins given via {@code -Dload.plugins} into the
+     * working directory's {@code plugins} folder
+     */
+    private static ConfigurableApplicationContext bootServer() throws IOException {
+        String plugins = System.getProperty("load.plugins");
+        if (plugins != null) {
+            File pluginDir = new File("plugins");
+            if (!pluginDir.isDirectory() && !pluginDir.mkdirs()) {
+                throw new IOException("Could not create a plugin folder");
+            }
+            for (String plugin : plugins.split(",")) {
+                File jar = new File(plugin.trim());
+                Files.copy(jar.toPath(), new File(pluginDir, jar.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return SpringApplication.run(UIMARESTServer.class, "--server.port=" + Integer.getInteger("load.port", 0));
+    }
+
+    /**
+     * Blocks until every stream in the mix reports that it is ready
+     */
+    private void awaitReady(String url) throws InterruptedException, IOException {
+        Set<String> streams = new LinkedHashSet<>();
+        for (Target target : mix) {
+            streams.add(target.stream);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Integer.getInteger("load.ready.timeout", 300));
+        for (String stream : streams) {
+            while (true) {
+                HttpURLConnection conn = (HttpURLConnection) new URL(url + "/streams/" + stream + "/ready").openConnection();
+                int status;
+                try {
+                    status = conn.getResponseCode();
+                } catch (IOException e) {
+                    status = LoadTestResults.NO_RESPONSE;
+                } finally {
+                    conn.disconnect();
+                }
+                if (status == 200) {
+                    break;
+                }
+                if (status == 404) {
+                    throw new IllegalArgumentException("The server has no stream called " + stream);
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IOException("Stream " + stream + " did not become ready in time");
+                }
+                Thread.sleep(500);
+            }
+        }
+        logger.log(Level.INFO, "Streams " + streams + " are ready");
+    }
+
+    /**
+     * Sends requests at the configured rate for the warmup and then the measured duration, and waits for all of them
+     * to complete
+     *
+     * @return The results of requests scheduled during the measured duration
+     */
+    private LoadTestResults run(String url) throws InterruptedException {
+        LoadTestResults results = new LoadTestResults();
+        ExecutorService senders = Executors.newFixedThreadPool(connections,
+                new ThreadFactoryBuilder().setNameFormat("UIMA-Load-Test-%d").setDaemon(true).build());
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long sequence = 0;
+        logger.log(Level.INFO, "Offering " + rate + " req/s for " + warmupSeconds + "s of warmup and "
+                + durationSeconds + "s of measurement");
+        for (long scheduled = start; scheduled - end < 0; scheduled += nextInterval(intervalNanos)) {
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // Requests are scheduled regardless of whether earlier ones were answered, and if the senders fall behind
+            // they are still measured from when they should have been sent
+            final long due = scheduled;
+            final boolean measured = scheduled - measureFrom >= 0;
+            final ServerRequest request = nextRequest(sequence++);
+            senders.execute(() -> send(url, request, due, measured ? results : null));
+        }
+        senders.shutdown();
+        if (!senders.awaitTermination(5, TimeUnit.MINUTES)) {
+            logger.log(Level.WARNING, "Requests still outstanding after 5 minutes were not counted");
+        }
+        return results;
+    }
+
+    private long nextInterval(long intervalNanos) {
+        // Poisson arrivals have exponentially distributed gaps, bursting and idling as independent clients would
+        return poisson ? (long) (-Math.log(1 - random.nextDouble()) * intervalNanos) : intervalNanos;
+    }
+
+    private ServerRequest nextRequest(long sequence) {
+        double weight = random.nextDouble() * mix.get(mix.size() - 1).cumulativeWeight;
+        Target target = mix.get(0);
+        for (Target candidate : mix) {
+            if (weight < candidate.cumulativeWeight) {
+                target = candidate;
+                break;
+            }
+        }
+        // Log-normally distributed lengths, as document lengths typically are
+        int length = (int) Math.min(documentMax, Math.max(1, documentMedian * Math.exp(documentSigma * random.nextGaussian())));
+        int offset = random.nextInt(corpus.length() - length);
+        // Numbered so that no two documents are identical, which would let the server answer them from its cache
+        ServerRequest request = new ServerRequest(target.stream, null, sequence + " " + corpus.substring(offset, offset + length),
+                target.serializers);
+        request.setTimeout(timeout);
+        return request;
+    }
+
+    private void send(String url, ServerRequest request, long scheduledNanos, LoadTestResults results) {
+        long sent = System.nanoTime();
+        int status;
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = conn.getOutputStream()) {
+                MAPPER.writeValue(out, request);
+            }
+            status = conn.getResponseCode();
+            // Read the response fully so that its connection can be reused
+            try (InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) != -1) {
+                        // Discard
+                    }
+                }
+            }
+        } catch (IOException e) {
+            status = LoadTestResults.NO_RESPONSE;
+        }
+        if (results != null) {
+            results.record(status, scheduledNanos, sent, System.nanoTime());
+        }
+    }
+
+    /**
+     * A stream and set of serializers to send a share of requests to
+     */
+    static class Target {
+        private final String stream;
+        private final List<String> serializers;
+        private final double cumulativeWeight;
+
+        Target(String stream, List<String> serializers, double cumulativeWeight) {
+            this.stream = stream;
+            this.serializers = serializers;
+            this.cumulativeWeight = cumulativeWeight;
+        }
+
+        /**
+         * @param mix Comma-separated {@code stream:serializer+serializer=weight} entries, where the weight is
+         *            optional and defaults to 1
+         */
+        static List<Target> parseMix(String mix) {
+            List<Target> ret = new ArrayList<>();
+            double cumulativeWeight = 0;
+            for (String entry : mix.split(",")) {
+                String[] weighted = entry.trim().split("=", 2);
+                String[] target = weighted[0].split(":", 2);
+                if (target.length != 2 || target[0].isEmpty() || target[1].isEmpty()) {
+                    throw new IllegalArgumentException("Mix entries must be of the form stream:serializer+serializer=weight, got " + entry);
+                }
+                double weight = weighted.length > 1 ? Double.parseDouble(weighted[1]) : 1;
+                if (weight <= 0) {
+                    throw new IllegalArgumentException("Mix weights must be positive, got " + entry);
+                }
+                cumulativeWeight += weight;
+                ret.add(new Target(target[0], Arrays.asList(target[1].split("\\+")), cumulativeWeight));
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package edu.mayo.dhs.uima.server.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and response statuses recorded during the measured part of a {@link LoadTest}. <br>
+ * <br>
+ * Latencies are recorded twice: once from the time each request was actually sent, and once from the time it was
+ * scheduled to be sent. If the server (or the load generator itself) stalls, requests queue up behind the stall and
+ * are sent late, so the former hides exactly the delays that the stall caused. The latter is corrected for this
+ * coordinated omission, and is what clients arriving at the offered rate would have experienced
+ */
+public class LoadTestResults {
+
+    /**
+     * Status recorded for requests that failed without an HTTP response
+     */
+    public static final int NO_RESPONSE = -1;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+    // In microseconds, auto-resizing so that no latency is too large to be recorded
+    private final Histogram corrected = new ConcurrentHistogram(3);
+    private final Histogram uncorrected = new ConcurrentHistogram(3);
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    /**
+     * @param status         The HTTP status of the response, or {@link #NO_RESPONSE}
+     * @param scheduledNanos The {@link System#nanoTime()} at which the request was due to be sent
+     * @param sentNanos      The {@link System#nanoTime()} at which the request was actually sent
+     * @param doneNanos      The {@link System#nanoTime()} at which the response was fully read
+     */
+    void record(int status, long scheduledNanos, long sentNanos, long doneNanos) {
+        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        // Rejections and errors return early, so only successful responses count towards latency
+        if (status == 200) {
+            corrected.recordValue(TimeUnit.NANOSECONDS.toMicros(doneNanos - scheduledNanos));
+            uncorrected.recordValue(TimeUnit.NANOSECONDS.toMicros(doneNanos - sentNanos));
+        }
+    }
+
+    /**
+     * @return The number of requests that completed with a 200 response
+     */
+    public long getSuccessful() {
+        return corrected.getTotalCount();
+    }
+
+    public Map<Integer, Long> getStatuses() {
+        Map<Integer, Long> ret = new TreeMap<>();
+        statuses.forEach((status, count) -> ret.put(status, count.sum()));
+        return ret;
+    }
+
+    /**
+     * @return Latencies in microseconds from the time each successful request was scheduled to be sent
+     */
+    public Histogram getCorrectedLatency() {
+        return corrected;
+    }
+
+    /**
+     * @return Latencies in microseconds from the time each successful request was actually sent
+     */
+    public Histogram getUncorrectedLatency() {
+        return uncorrected;
+    }
+
+    /**
+     * Prints a summary of these results
+     *
+     * @param offeredRate     The rate at which requests were scheduled, per second
+     * @param durationSeconds The length of the measured part of the load test
+     */
+    public void print(PrintStream out, double offeredRate, int durationSeconds) {
+        out.printf("Offered:    %.1f req/s for %ds%n", offeredRate, durationSeconds);
+        out.printf("Throughput: %.1f req/s (%d successful)%n", getSuccessful() / (double) durationSeconds, getSuccessful());
+        out.println("Statuses:   " + getStatuses() + (statuses.containsKey(NO_RESPONSE) ? " (" + NO_RESPONSE + " = no response)" : ""));
+        out.printf("%-14s", "Latency (ms)");
+        for (String percentile : PERCENTILE_NAMES) {
+            out.printf("%10s", percentile);
+        }
+        out.printf("%10s%10s%n", "max", "mean");
+        printRow(out, "corrected", corrected);
+        printRow(out, "uncorrected", uncorrected);
+    }
+
+    private static void printRow(PrintStream out, String name, Histogram histogram) {
+        out.printf("%-14s", name);
+        for (double percentile : PERCENTILES) {
+            out.printf("%10.2f", histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+        out.printf("%10.2f%10.2f%n", histogram.getMaxValue() / 1000.0, histogram.getMean() / 1000.0);
+    }
+
+    /**
+     * Writes the full percentile distributions of both latency histograms in HdrHistogram's .hgrm format, in
+     * milliseconds, to {@code <prefix>-corrected.hgrm} and {@code <prefix>-uncorrected.hgrm}
+     */
+    public void writeDistributions(String prefix) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(prefix + "-corrected.hgrm"))) {
+            corrected.outputPercentileDistribution(out, 1000.0);
+        }
+        try (PrintStream out = new PrintStream(new FileOutputStream(prefix + "-uncorrected.hgrm"))) {
+            uncorrected.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package edu.mayo.dhs.uima.server.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.util.concurrent.Uninterruptibles;
+import edu.mayo.dhs.uima.server.api.UIMABatchResult;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamTimings;
+import edu.mayo.dhs.uima.server.rest.models.BatchServerResponse;
+import edu.mayo.dhs.uima.server.rest.models.ServerRequest;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handles a single batch request to {@link UIMARESTServer}: documents are parsed from the request body as they
+ * arrive, submitted to their streams in batches, and their results streamed back as newline-delimited JSON as soon as
+ * each document finishes processing. <br>
+ * <br>
+ * Parsing and submission run on separate threads. Submission takes whatever documents have been parsed so far
+ * (up to {@link #MAX_BATCH_SIZE}) and enqueues them in a single operation per stream, so batches grow with load
+ * while a client trickling documents in one at a time does not have to wait for a batch to fill up. Both steps
+ * block when the stream's queue is full, which in turn stops the request body from being read and so pushes back on
+ * the client.
+ */
+class BatchRequestHandler {
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader REQUEST_READER = MAPPER.readerFor(ServerRequest.class);
+    private static final ParsedRequest END_OF_INPUT = new ParsedRequest(-1, null);
+
+    private final Logger logger = Logger.getLogger("UIMA-REST-Server");
+    private final UIMARESTServer server;
+    private final InputStream body;
+    private final ResponseBodyEmitter emitter;
+    private final BlockingQueue<ParsedRequest> parsed = new LinkedBlockingQueue<>(MAX_BATCH_SIZE * 4);
+    // Documents not yet responded to, plus one held until all input has been submitted
+    private final AtomicInteger outstanding = new AtomicInteger(1);
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean aborted = false;
+
+    BatchRequestHandler(UIMARESTServer server, InputStream body, ResponseBodyEmitter emitter) {
+        this.server = server;
+        this.body = body;
+        this.emitter = emitter;
+    }
+
+    void start(Executor executor) {
+        emitter.onError(e -> abort());
+        emitter.onTimeout(this::abort);
+        executor.execute(this::parse);
+        executor.execute(this::submit);
+    }
+
+    /**
+     * Reads documents from the request body, which may either be a JSON array or newline-delimited JSON
+     */
+    private void parse() {
+        int index = 0;
+        try (MappingIterator<ServerRequest> requests = REQUEST_READER.readValues(body)) {
+            while (!aborted && requests.hasNextValue()) {
+                parsed.put(new ParsedRequest(index++, requests.nextValue()));
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Malformed batch request body", e);
+            emit(new BatchServerResponse(index, null, "Malformed request: " + e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            aborted = true;
+        } finally {
+            Uninterruptibles.putUninterruptibly(parsed, END_OF_INPUT);
+        }
+    }
+
+    private void submit() {
+        List<ParsedRequest> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        try {
+            while (true) {
+                batch.add(parsed.take());
+                parsed.drainTo(batch, MAX_BATCH_SIZE - 1);
+                boolean done = batch.remove(END_OF_INPUT);
+                if (!aborted) {
+                    submit(batch);
+                }
+                batch.clear();
+                if (done) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            aborted = true;
+        } finally {
+            completed();
+        }
+    }
+
+    private void submit(List<ParsedRequest> batch) {
+        // Documents in a batch can target different streams with different serializers, so submit one batch for each
+        Map<List<Object>, List<ParsedRequest>> groups = new LinkedHashMap<>();
+        for (ParsedRequest request : batch) {
+            String error = UIMARESTServer.validate(request.request);
+            if (error != null) {
+                emit(new BatchServerResponse(request.index, echoedMetadata(request.request), error));
+                continue;
+            }
+            List<Object> key = new ArrayList<>(2);
+            key.add(request.request.getStreamName().toLowerCase());
+            key.add(new ArrayList<>(request.request.getSerializers()));
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(request);
+        }
+        for (List<ParsedRequest> group : groups.values()) {
+            submitGroup(group);
+        }
+    }
+
+    private void submitGroup(List<ParsedRequest> group) {
+        ServerRequest first = group.get(0).request;
+        UIMAStream stream = server.getStream(first.getStreamName().toLowerCase());
+        if (stream == null) {
+            for (ParsedRequest request : group) {
+                emit(new BatchServerResponse(request.index, echoedMetadata(request.request),
+                        "There is no currently running stream called " + first.getStreamName()));
+            }
+            return;
+        }
+        Map<String, JsonNode> errors = new HashMap<>();
+        Map<String, UIMANLPResultSerializer> serializers = server.resolveSerializers(first.getSerializers(), errors);
+        List<UIMAStreamRequest> documents = new ArrayList<>(group.size());
+        for (ParsedRequest request : group) {
+            // Batches are typically backfills, so unless told otherwise they should not hold up interactive requests
+            documents.add(UIMARESTServer.toStreamRequest(request.request, UIMAStream.Priority.BULK));
+        }
+        final long startTime = System.currentTimeMillis();
+        outstanding.addAndGet(group.size());
+        UIMABatchResult<Map<String, JsonNode>> results;
+        try {
+            results = stream.submitBatch(documents, serializers);
+        } catch (RuntimeException e) {
+            for (ParsedRequest request : group) {
+                emit(new BatchServerResponse(request.index, echoedMetadata(request.request), e.getMessage()));
+                completed();
+            }
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            ParsedRequest request = group.get(i);
+            UIMAStreamTimings timings = documents.get(i).getTimings();
+            CompletableFuture<Map<String, JsonNode>> result = results.getResults().get(i);
+            inFlight.add(result);
+            result.whenComplete((serialized, e) -> {
+                inFlight.remove(result);
+                if (e != null) {
+                    if (!(e instanceof CancellationException)) {
+                        logger.log(Level.SEVERE, "Error occurred during pipeline processing or serialization!", e);
+                    }
+                    emit(new BatchServerResponse(request.index, echoedMetadata(request.request), e.getMessage()));
+                } else {
+                    BatchServerResponse response = new BatchServerResponse(request.index,
+                            System.currentTimeMillis() - startTime, echoedMetadata(request.request),
+                            request.request.isEcho() ? request.request.getDocument() : null,
+                            UIMARESTServer.withErrors(serialized, errors));
+                    response.setTimings(timings);
+                    emit(response);
+                }
+                completed();
+            });
+        }
+    }
+
+    /**
+     * @return The metadata of a request if it asked for it to be echoed, otherwise null
+     */
+    private static String echoedMetadata(ServerRequest request) {
+        return request != null && request.isEcho() ? request.getMetadata() : null;
+    }
+
+    private void emit(BatchServerResponse response) {
+        if (aborted) {
+            return;
+        }
+        try {
+            // Written as a single send so that lines from concurrently completing documents never interleave
+            emitter.send(MAPPER.writeValueAsString(response) + "\n", MediaType.TEXT_PLAIN);
+        } catch (IOException | IllegalStateException e) {
+            logger.log(Level.WARNING, "Failed to send batch response, abandoning the remainder of the batch", e);
+            abort();
+        }
+    }
+
+    /**
+     * Stops reading input once the client has gone away, and cancels all documents still in progress so that
+     * pipelines skip those that have not yet started
+     */
+    private void abort() {
+        aborted = true;
+        for (CompletableFuture<?> result : inFlight) {
+            result.cancel(false);
+        }
+    }
+
+    private void completed() {
+        if (outstanding.decrementAndGet() == 0) {
+            if (aborted) {
+                emitter.completeWithError(new IOException("Batch request aborted"));
+            } else {
+                emitter.complete();
+            }
+        }
+    }
+
+    private static class ParsedRequest {
+        private final int index;
+        private final ServerRequest request;
+
+        ParsedRequest(int index, ServerRequest request) {
+            this.index = index;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package edu.mayo.dhs.uima.server.rest;
+
+import edu.mayo.dhs.uima.server.api.UIMAStreamOverloadedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Translates stream errors into HTTP statuses for both {@link UIMARESTServer} and {@link UIMAReactiveRESTServer}
+ */
+@RestControllerAdvice
+class RESTExceptionAdvice {
+
+    private static final int NOT_READY_RETRY_AFTER_SECONDS = 5;
+
+    /**
+     * Translates a full stream queue into a 429 Too Many Requests, with a Retry-After hint based on how long the stream
+     * should take to work through its current backlog
+     */
+    @ExceptionHandler(UIMAStreamOverloadedException.class)
+    ResponseEntity<String> handleOverload(UIMAStreamOverloadedException e) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(e.getRetryAfterMillis()));
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(e.getMessage());
+    }
+
+    /**
+     * Translates a request to a stream that is still starting into a 503 Service Unavailable
+     */
+    @ExceptionHandler(StreamNotReadyException.class)
+    ResponseEntity<String> handleNotReady(StreamNotReadyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(NOT_READY_RETRY_AFTER_SECONDS))
+                .body(e.getMessage());
+    }
+
+    /**
+     * Translates a job that exceeded its deadline into a 504 Gateway Timeout
+     */
+    @ExceptionHandler(TimeoutException.class)
+    ResponseEntity<String> handleTimeout(TimeoutException e) {
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(e.getMessage());
+    }
+}
@@ -0,0 +1,67 @@
+package edu.mayo.dhs.uima.server.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.core.UIMAServerBase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the serializers requested by name up front, so that they can be run directly against the CAS within the
+ * pipeline. Serializers are never unregistered, so combinations that resolve completely are remembered rather than
+ * looked up again
+ */
+class SerializerResolver {
+
+    private final UIMAServerBase server;
+    // Requested serializer names to their resolved serializers, for requests whose serializers all exist
+    private final Cache<List<String>, Map<String, UIMANLPResultSerializer>> resolved =
+            CacheBuilder.newBuilder().maximumSize(1024).build();
+
+    SerializerResolver(UIMAServerBase server) {
+        this.server = server;
+    }
+
+    /**
+     * @param serializerNames The names of the requested serializers
+     * @param errors          Populated with an error entry for each serializer that could not be found
+     * @return The serializers that were found, keyed by lowercase name
+     */
+    Map<String, UIMANLPResultSerializer> resolve(Collection<String> serializerNames, Map<String, JsonNode> errors) {
+        List<String> key = new ArrayList<>(serializerNames);
+        Map<String, UIMANLPResultSerializer> ret = resolved.getIfPresent(key);
+        if (ret != null) {
+            return ret;
+        }
+        Map<String, UIMANLPResultSerializer> serializers = new LinkedHashMap<>();
+        boolean missing = false;
+        for (String serializerName : serializerNames) {
+            UIMANLPResultSerializer serializer = server.getSerializer(serializerName);
+            if (serializer == null) {
+                missing = true;
+                errors.put(
+                        serializerName.toLowerCase(),
+                        JsonNodeFactory.instance.objectNode().put("error",
+                        "Illegal Argument: serializer " + serializerName.toLowerCase() + " not found!")
+                );
+            } else {
+                serializers.put(serializerName.toLowerCase(), serializer);
+            }
+        }
+        if (missing) {
+            // Plugins may still register the missing serializers
+            return serializers;
+        }
+        ret = Collections.unmodifiableMap(serializers);
+        resolved.put(key, ret);
+        return ret;
+    }
+}
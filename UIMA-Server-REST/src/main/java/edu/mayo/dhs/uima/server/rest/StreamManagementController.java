@@ -0,0 +1,78 @@
+package edu.mayo.dhs.uima.server.rest;
+
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.core.UIMAServerBase;
+import edu.mayo.dhs.uima.server.core.metrics.PrometheusExporter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Readiness, metrics and resizing endpoints for the streams of whichever of {@link UIMARESTServer} and
+ * {@link UIMAReactiveRESTServer} is running. None of these ever wait on a stream, so the same endpoints serve both
+ */
+@RestController
+class StreamManagementController {
+
+    private final UIMAServerBase server;
+
+    StreamManagementController(UIMAServerBase server) {
+        this.server = server;
+    }
+
+    /**
+     * Reports whether a stream has finished starting, e.g. for use as a load balancer readiness check
+     *
+     * @return 200 if the stream is ready, 503 if it is still starting or shutting down
+     */
+    @RequestMapping(path = "/streams/{streamName}/ready", method = RequestMethod.GET)
+    ResponseEntity<String> streamReady(@PathVariable String streamName) {
+        UIMAStream stream = server.getStream(streamName.toLowerCase());
+        if (stream == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("There is no currently running stream called " + streamName);
+        }
+        if (!stream.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(stream.getState() == UIMAStream.State.OPEN
+                    ? "STARTING" : stream.getState().name());
+        }
+        return ResponseEntity.ok("READY");
+    }
+
+    /**
+     * Exposes queue, pipeline, serializer and cache metrics of all streams for scraping by Prometheus
+     */
+    @RequestMapping(path = "/metrics", method = RequestMethod.GET)
+    ResponseEntity<String> metrics() {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, PrometheusExporter.CONTENT_TYPE)
+                .body(PrometheusExporter.export(server.getStreams()));
+    }
+
+    /**
+     * Resizes a running stream without restarting the server, either to a fixed number of pipelines if only
+     * {@code min} is given, or to automatically scale between {@code min} and {@code max}
+     *
+     * @return The number of pipelines the stream is currently running
+     */
+    @RequestMapping(path = "/streams/{streamName}/pipelines", method = RequestMethod.PUT)
+    ResponseEntity<String> resizeStream(@PathVariable String streamName, @RequestParam int min,
+                                        @RequestParam(required = false) Integer max) {
+        UIMAStream stream = server.getStream(streamName.toLowerCase());
+        if (stream == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("There is no currently running stream called " + streamName);
+        }
+        try {
+            stream.resize(min, max == null ? min : max);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+        return ResponseEntity.ok(String.valueOf(stream.getPipelineCount()));
+    }
+}
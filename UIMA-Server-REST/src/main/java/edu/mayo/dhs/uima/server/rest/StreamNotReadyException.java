@@ -0,0 +1,11 @@
+package edu.mayo.dhs.uima.server.rest;
+
+/**
+ * Thrown when a request targets a stream whose pipelines are still starting, translated by {@link RESTExceptionAdvice}
+ * into a 503 Service Unavailable
+ */
+class StreamNotReadyException extends IllegalStateException {
+    StreamNotReadyException(String streamName) {
+        super("Stream " + streamName + " is still starting, please retry later");
+    }
+}
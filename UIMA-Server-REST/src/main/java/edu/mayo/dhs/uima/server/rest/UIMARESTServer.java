@@ -1,24 +1,40 @@
 package edu.mayo.dhs.uima.server.rest;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
 import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamTimings;
 import edu.mayo.dhs.uima.server.core.UIMAServerBase;
+import edu.mayo.dhs.uima.server.rest.models.PendingContent;
 import edu.mayo.dhs.uima.server.rest.models.ServerRequest;
 import edu.mayo.dhs.uima.server.rest.models.ServerResponse;
-import org.apache.uima.cas.CAS;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,7 +46,13 @@ import java.util.logging.Logger;
 @SpringBootApplication
 public class UIMARESTServer extends UIMAServerBase {
 
+    // How long a committed response waits for its serializers if the request did not set a timeout, in milliseconds
+    private static final long WRITE_TIMEOUT_MILLIS = Long.getLong("uima.server.rest.write.timeout", 30000);
     private Logger logger;
+    private final SerializerResolver serializerResolver = new SerializerResolver(this);
+    // Reads and submits the documents of batch requests, two threads per batch request in progress
+    private final ExecutorService batchPool = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("UIMA-REST-Batch-%d").setDaemon(true).build());
 
     @Override
     public void start() {
@@ -39,60 +61,156 @@ public class UIMARESTServer extends UIMAServerBase {
     }
 
     @RequestMapping(method = RequestMethod.POST)
-    CompletableFuture<ServerResponse> submitJob(@RequestBody ServerRequest req) {
-        CompletableFuture<ServerResponse> ret = new CompletableFuture<>();
-        if (req.getDocument() == null) {
-            ret.completeExceptionally(new IllegalArgumentException("A document must be provided!"));
+    DeferredResult<ServerResponse> submitJob(@RequestBody ServerRequest req) {
+        // Times out alongside the job itself, so that the client is answered by the deadline it asked for
+        DeferredResult<ServerResponse> ret = new DeferredResult<>(req.getTimeout());
+        String invalid = validate(req);
+        if (invalid != null) {
+            ret.setErrorResult(new IllegalArgumentException(invalid));
             return ret;
         }
-        if (req.getStreamName() == null) {
-            ret.completeExceptionally(new IllegalArgumentException("A stream name must be provided"));
+        UIMAStream stream = getStream(req.getStreamName().toLowerCase());
+        if (stream == null) {
+            ret.setErrorResult(new IllegalArgumentException("There is no currently running stream called " + req.getStreamName()));
             return ret;
         }
-        if (req.getSerializers() == null || req.getSerializers().isEmpty()) {
-            ret.completeExceptionally(new IllegalArgumentException("At least 1 deserializer must be defined!"));
+        if (!stream.isReady()) {
+            // Other streams are served while this one is warming up, rather than holding the client until it is ready
+            ret.setErrorResult(new StreamNotReadyException(req.getStreamName()));
             return ret;
         }
-        UIMAStream stream = getStream(req.getStreamName().toLowerCase());
-        if (stream == null) {
-            ret.completeExceptionally(new IllegalArgumentException("There is no currently running stream called " + req.getStreamName()));
+        // Resolve serializers up front so that they can be run directly against the CAS within the pipeline
+        Map<String, JsonNode> errors = new HashMap<>();
+        Map<String, UIMANLPResultSerializer> serializers = resolveSerializers(req.getSerializers(), errors);
+        final long startTime = System.currentTimeMillis();
+        // Only what the response needs is kept until the job completes, rather than the request and its document
+        final String echoedMetadata = req.isEcho() ? req.getMetadata() : null;
+        final String echoedDocument = req.isEcho() ? req.getDocument() : null;
+        final Long timeout = req.getTimeout();
+        final UIMAStreamRequest request;
+        final CompletableFuture<Map<String, CompletableFuture<JsonNode>>> pipelineResult;
+        try {
+            // Never block a request thread on a full queue, reject instead so that clients can back off
+            request = toStreamRequest(req, UIMAStream.Priority.INTERACTIVE);
+            pipelineResult = stream.trySubmitProgressively(request, serializers);
+        } catch (RuntimeException e) {
+            ret.setErrorResult(e);
             return ret;
         }
-        final long startTime = System.currentTimeMillis();
-        CompletableFuture<CAS> pipelineResult = stream.submit(req.getDocument(), req.getMetadata());
-        pipelineResult.exceptionally(e -> {
-            ret.completeExceptionally(e);
-            return null;
-        }).thenApply((cas) -> {
-            try {
-                Map<String, JsonNode> results = new HashMap<>();
-                for (String serializerName : req.getSerializers()) {
-                    UIMANLPResultSerializer serializer = getSerializer(serializerName);
-                    if (serializer == null) {
-                        results.put(
-                                serializerName.toLowerCase(),
-                                JsonNodeFactory.instance.objectNode().put("error",
-                                "Illegal Argument: serializer " + serializerName.toLowerCase() + " not found!")
-                        );
-                    } else {
-                        results.put(serializerName.toLowerCase(), serializer.serializeNLPResult(cas));
-                    }
+        final UIMAStreamTimings timings = request.getTimings();
+        // Once the client has gone away or given up, cancel the job so that the pipeline skips it if not yet started
+        ret.onTimeout(() -> {
+            pipelineResult.cancel(false);
+            ret.setErrorResult(new TimeoutException("Request did not complete within " + timeout + "ms"));
+        });
+        ret.onError(e -> pipelineResult.cancel(false));
+        // The response is committed once the document has passed through the pipeline, with each serializer's result
+        // written as soon as it is ready
+        pipelineResult.whenComplete((serializing, e) -> {
+            if (e != null) {
+                if (!(e instanceof CancellationException)) {
+                    logger.log(Level.SEVERE, "Error occurred during pipeline processing!", e);
                 }
-                ServerResponse resp = new ServerResponse(System.currentTimeMillis() - startTime,
-                        req.getMetadata(), req.getDocument(), results);
-                ret.complete(resp);
-                return cas;
-            } catch (Throwable e) {
-                logger.log(Level.SEVERE, "Error occurred during pipeline serialization!", e);
-                ret.completeExceptionally(e);
-                return cas;
+                ret.setErrorResult(e);
+                return;
             }
+            serializing.forEach((name, result) -> result.whenComplete((serialized, failure) -> {
+                if (failure != null) {
+                    logger.log(Level.SEVERE, "Error occurred during serialization with " + name + "!", failure);
+                }
+            }));
+            // Writing the content never outlasts the request's own deadline, as DeferredResult no longer bounds it
+            long deadline = request.getDeadline() != null ? request.getDeadline()
+                    : System.currentTimeMillis() + WRITE_TIMEOUT_MILLIS;
+            // The job duration is filled in by the content once every serializer has finished
+            ServerResponse resp = new ServerResponse(0, echoedMetadata, echoedDocument,
+                    new PendingContent(serializing, errors, startTime, deadline));
+            resp.setTimings(timings);
+            ret.setResult(resp);
         });
 
         return ret;
     }
 
+    /**
+     * Processes a batch of documents, supplied either as a JSON array or as newline-delimited JSON of
+     * {@link ServerRequest}s. Results are streamed back as newline-delimited JSON in the order in which documents
+     * finish processing, each tagged with the index of its document within the batch
+     */
+    @RequestMapping(path = "/batch", method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, BatchRequestHandler.APPLICATION_NDJSON_VALUE},
+            produces = BatchRequestHandler.APPLICATION_NDJSON_VALUE)
+    ResponseBodyEmitter submitBatch(HttpServletRequest request) throws IOException {
+        // Batches can run for arbitrarily long, so no timeout
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L);
+        new BatchRequestHandler(this, request.getInputStream(), emitter).start(batchPool);
+        return emitter;
+    }
+
+    /**
+     * @param defaultPriority The priority to use if the request does not specify one
+     * @return The document, metadata, priority and deadline of a request as submitted to a stream
+     */
+    static UIMAStreamRequest toStreamRequest(ServerRequest req, UIMAStream.Priority defaultPriority) {
+        UIMAStreamRequest request = new UIMAStreamRequest(req.getDocument(), req.getMetadata(),
+                req.getPriority() == null ? defaultPriority : req.getPriority());
+        if (req.getTimeout() != null) {
+            request.setTimeout(req.getTimeout(), TimeUnit.MILLISECONDS);
+        }
+        request.setCollectTimings(req.isTimings());
+        return request;
+    }
+
+    /**
+     * @return Why the request cannot be processed, or null if it is valid
+     */
+    static String validate(ServerRequest req) {
+        if (req == null || req.getDocument() == null) {
+            return "A document must be provided!";
+        }
+        if (req.getStreamName() == null) {
+            return "A stream name must be provided";
+        }
+        if (req.getSerializers() == null || req.getSerializers().isEmpty()) {
+            return "At least 1 deserializer must be defined!";
+        }
+        return null;
+    }
+
+    /**
+     * Resolves serializers up front so that they can be run directly against the CAS within the pipeline
+     *
+     * @param serializerNames The names of the requested serializers
+     * @param errors          Populated with an error entry for each serializer that could not be found
+     * @return The serializers that were found, keyed by lowercase name
+     */
+    Map<String, UIMANLPResultSerializer> resolveSerializers(Collection<String> serializerNames, Map<String, JsonNode> errors) {
+        return serializerResolver.resolve(serializerNames, errors);
+    }
+
+    /**
+     * @return The serialized results together with an error entry for each serializer that could not be found,
+     * without copying the results if there are no errors
+     */
+    static Map<String, JsonNode> withErrors(Map<String, JsonNode> serialized, Map<String, JsonNode> errors) {
+        if (errors.isEmpty()) {
+            return serialized;
+        }
+        // The stream may still be caching the results themselves
+        Map<String, JsonNode> results = new LinkedHashMap<>(serialized);
+        results.putAll(errors);
+        return results;
+    }
+
+    /**
+     * Starts the servlet front end, or the non-blocking {@link UIMAReactiveRESTServer} on Netty if launched with
+     * {@code -Duima.server.rest.mode=reactive}
+     */
     public static void main(String... args) {
-        SpringApplication.run(UIMARESTServer.class);
+        if ("reactive".equalsIgnoreCase(System.getProperty("uima.server.rest.mode", "servlet"))) {
+            new SpringApplicationBuilder(UIMAReactiveRESTServer.class).web(WebApplicationType.REACTIVE).run(args);
+        } else {
+            SpringApplication.run(UIMARESTServer.class);
+        }
     }
 }
@@ -0,0 +1,225 @@
+package edu.mayo.dhs.uima.server.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+import edu.mayo.dhs.uima.server.api.UIMAStreamTimings;
+import edu.mayo.dhs.uima.server.core.UIMAServerBase;
+import edu.mayo.dhs.uima.server.rest.models.BatchServerResponse;
+import edu.mayo.dhs.uima.server.rest.models.ServerRequest;
+import edu.mayo.dhs.uima.server.rest.models.ServerResponse;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A reactive alternative to {@link UIMARESTServer}, serving the same API on Netty. Admission, queueing and response
+ * writing never block a thread: single requests are rejected when a stream's queue is full, as with the servlet
+ * front end, while batch requests wait for space via {@link UIMAStream#submitWhenAdmitted(UIMAStreamRequest, Map)}
+ * rather than on a blocked thread, and only read as many
+ * documents from the request body as they have room for in flight. <br>
+ * <br>
+ * Selected at launch via {@code -Duima.server.rest.mode=reactive}, see {@link UIMARESTServer#main(String...)}
+ */
+@RestController
+@EnableAutoConfiguration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+// Launched without component scanning, so the endpoints and error handling shared with the servlet front end are
+// pulled in explicitly
+@Import({StreamManagementController.class, RESTExceptionAdvice.class})
+public class UIMAReactiveRESTServer extends UIMAServerBase {
+
+    // Documents of a single batch request that may be submitted and awaiting their results at any one time
+    private static final int MAX_BATCH_IN_FLIGHT = 256;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader REQUEST_READER = MAPPER.readerFor(ServerRequest.class);
+    private Logger logger;
+    private final SerializerResolver serializerResolver = new SerializerResolver(this);
+
+    @Override
+    public void start() {
+        logger = Logger.getLogger("UIMA-REST-Server");
+        // No special initialization tasks needed
+    }
+
+    /**
+     * Serves on Netty even when a servlet container is also on the classpath
+     */
+    @Bean
+    NettyReactiveWebServerFactory reactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @RequestMapping(method = RequestMethod.POST)
+    Mono<ServerResponse> submitJob(@RequestBody ServerRequest req) {
+        String invalid = UIMARESTServer.validate(req);
+        if (invalid != null) {
+            return Mono.error(new IllegalArgumentException(invalid));
+        }
+        UIMAStream stream = getStream(req.getStreamName().toLowerCase());
+        if (stream == null) {
+            return Mono.error(new IllegalArgumentException("There is no currently running stream called " + req.getStreamName()));
+        }
+        if (!stream.isReady()) {
+            return Mono.error(new StreamNotReadyException(req.getStreamName()));
+        }
+        Map<String, JsonNode> errors = new HashMap<>();
+        Map<String, UIMANLPResultSerializer> serializers = serializerResolver.resolve(req.getSerializers(), errors);
+        final long startTime = System.currentTimeMillis();
+        final String echoedMetadata = req.isEcho() ? req.getMetadata() : null;
+        final String echoedDocument = req.isEcho() ? req.getDocument() : null;
+        final Long timeout = req.getTimeout();
+        final UIMAStreamRequest request = UIMARESTServer.toStreamRequest(req, UIMAStream.Priority.INTERACTIVE);
+        final UIMAStreamTimings timings = request.getTimings();
+        final CompletableFuture<Map<String, JsonNode>> pipelineResult;
+        try {
+            pipelineResult = stream.trySubmit(request, serializers);
+        } catch (RuntimeException e) {
+            return Mono.error(e);
+        }
+        // Once the client has gone away or given up, cancel the job so that the pipeline skips it if not yet started
+        Mono<Map<String, JsonNode>> result = Mono.fromFuture(pipelineResult).doOnCancel(() -> pipelineResult.cancel(false));
+        if (timeout != null) {
+            result = result.timeout(Duration.ofMillis(timeout),
+                    Mono.error(new TimeoutException("Request did not complete within " + timeout + "ms")));
+        }
+        return result
+                .doOnError(e -> {
+                    if (!(e instanceof CancellationException) && !(e instanceof TimeoutException)) {
+                        logger.log(Level.SEVERE, "Error occurred during pipeline processing or serialization!", e);
+                    }
+                })
+                .map(serialized -> {
+                    ServerResponse resp = new ServerResponse(System.currentTimeMillis() - startTime,
+                            echoedMetadata, echoedDocument, UIMARESTServer.withErrors(serialized, errors));
+                    resp.setTimings(timings);
+                    return resp;
+                });
+    }
+
+    /**
+     * Processes a batch of documents supplied as a JSON array, streaming results back as newline-delimited JSON in
+     * the order in which documents finish processing
+     */
+    @RequestMapping(path = "/batch", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = BatchRequestHandler.APPLICATION_NDJSON_VALUE)
+    Flux<String> submitBatch(@RequestBody Flux<ServerRequest> requests) {
+        AtomicInteger index = new AtomicInteger();
+        Flux<BatchDocument> documents = requests
+                .map(request -> new BatchDocument(index.getAndIncrement(), request, null))
+                .onErrorResume(e -> Flux.just(new BatchDocument(index.get(), null, "Malformed request: " + e.getMessage())));
+        return processBatch(documents);
+    }
+
+    /**
+     * Processes a batch of documents supplied as newline-delimited JSON, streaming results back as newline-delimited
+     * JSON in the order in which documents finish processing
+     */
+    @RequestMapping(path = "/batch", method = RequestMethod.POST, consumes = BatchRequestHandler.APPLICATION_NDJSON_VALUE,
+            produces = BatchRequestHandler.APPLICATION_NDJSON_VALUE)
+    Flux<String> submitBatchLines(@RequestBody Flux<String> lines) {
+        AtomicInteger index = new AtomicInteger();
+        Flux<BatchDocument> documents = lines
+                .filter(line -> !line.trim().isEmpty())
+                .map(line -> {
+                    int i = index.getAndIncrement();
+                    try {
+                        return new BatchDocument(i, REQUEST_READER.readValue(line), null);
+                    } catch (JsonProcessingException e) {
+                        return new BatchDocument(i, null, "Malformed request: " + e.getOriginalMessage());
+                    }
+                });
+        return processBatch(documents);
+    }
+
+    private Flux<String> processBatch(Flux<BatchDocument> documents) {
+        // Only as many documents are read from the body as may be in flight, which pushes back on the client
+        return documents.flatMap(this::processBatchDocument, MAX_BATCH_IN_FLIGHT)
+                .map(response -> {
+                    try {
+                        return MAPPER.writeValueAsString(response) + "\n";
+                    } catch (JsonProcessingException e) {
+                        throw new IllegalStateException("Failed to write batch response", e);
+                    }
+                });
+    }
+
+    private Mono<BatchServerResponse> processBatchDocument(BatchDocument document) {
+        if (document.error != null) {
+            return Mono.just(new BatchServerResponse(document.index, null, document.error));
+        }
+        ServerRequest req = document.request;
+        String echoedMetadata = req != null && req.isEcho() ? req.getMetadata() : null;
+        String invalid = UIMARESTServer.validate(req);
+        if (invalid != null) {
+            return Mono.just(new BatchServerResponse(document.index, echoedMetadata, invalid));
+        }
+        UIMAStream stream = getStream(req.getStreamName().toLowerCase());
+        if (stream == null) {
+            return Mono.just(new BatchServerResponse(document.index, echoedMetadata,
+                    "There is no currently running stream called " + req.getStreamName()));
+        }
+        Map<String, JsonNode> errors = new HashMap<>();
+        Map<String, UIMANLPResultSerializer> serializers = serializerResolver.resolve(req.getSerializers(), errors);
+        // Batches are typically backfills, so unless told otherwise they should not hold up interactive requests
+        UIMAStreamRequest request = UIMARESTServer.toStreamRequest(req, UIMAStream.Priority.BULK);
+        String echoedDocument = req.isEcho() ? req.getDocument() : null;
+        long startTime = System.currentTimeMillis();
+        // Batch documents for a stream that is still starting or whose queue is full wait for space
+        return Mono.defer(() -> {
+                    CompletableFuture<Map<String, JsonNode>> result = stream.submitWhenAdmitted(request, serializers);
+                    return Mono.fromFuture(result).doOnCancel(() -> result.cancel(false));
+                })
+                .map(serialized -> {
+                    BatchServerResponse response = new BatchServerResponse(document.index,
+                            System.currentTimeMillis() - startTime, echoedMetadata, echoedDocument,
+                            UIMARESTServer.withErrors(serialized, errors));
+                    response.setTimings(request.getTimings());
+                    return response;
+                })
+                .onErrorResume(e -> {
+                    if (!(e instanceof CancellationException)) {
+                        logger.log(Level.SEVERE, "Error occurred during pipeline processing or serialization!", e);
+                    }
+                    return Mono.just(new BatchServerResponse(document.index, echoedMetadata, e.getMessage()));
+                });
+    }
+
+    /**
+     * A document read from a batch request body, or why it could not be read
+     */
+    private static class BatchDocument {
+        private final int index;
+        private final ServerRequest request;
+        private final String error;
+
+        BatchDocument(int index, ServerRequest request, String error) {
+            this.index = index;
+            this.request = request;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.mayo.dhs.uima.server.rest.models;
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.rest.UIMARESTServer;
+
+import java.util.Map;
+
+/**
+ * A Server Response to a single document within a batch NLP Request, streamed back as soon as that document has been
+ * processed. Interactions with this class should only be done through {@link UIMARESTServer}
+ */
+public class BatchServerResponse extends ServerResponse {
+    private int index = 0;
+    private String error = null;
+
+    public BatchServerResponse() {}
+
+    public BatchServerResponse(int index, long jobDuration, String metadata, String message, Map<String, JsonNode> content) {
+        super(jobDuration, metadata, message, content);
+        this.index = index;
+    }
+
+    public BatchServerResponse(int index, String metadata, String error) {
+        super(0, metadata, null, null);
+        this.index = index;
+        this.error = error;
+    }
+
+    /**
+     * @return The position of the document this response belongs to within the batch, starting from 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return Why the document could not be processed, or null if it was processed successfully
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,82 @@
+package edu.mayo.dhs.uima.server.rest.models;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the content of a {@link ServerResponse}, flushing after each serializer's result so that large results are
+ * sent on to the client one at a time rather than accumulating in the response buffer. The results of
+ * {@link PendingContent} are written in the order in which their serializers finish, each as soon as it is ready, and
+ * those that have not finished by the deadline of the request are written as timed out rather than holding the
+ * response open any longer
+ */
+class FlushingContentSerializer extends StdSerializer<Map<String, JsonNode>> {
+
+    @SuppressWarnings("unchecked")
+    FlushingContentSerializer() {
+        super((Class<Map<String, JsonNode>>) (Class<?>) Map.class);
+    }
+
+    @Override
+    public void serialize(Map<String, JsonNode> content, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        generator.writeStartObject(content);
+        if (content instanceof PendingContent) {
+            writeAsCompleted((PendingContent) content, generator, provider);
+        } else {
+            for (Map.Entry<String, JsonNode> result : content.entrySet()) {
+                writeResult(result.getKey(), result.getValue(), generator, provider);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeAsCompleted(PendingContent content, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        BlockingQueue<String> completed = new LinkedBlockingQueue<>();
+        content.getResults().forEach((name, result) -> result.whenComplete((serialized, e) -> completed.add(name)));
+        Set<String> pending = new LinkedHashSet<>(content.getResults().keySet());
+        while (!pending.isEmpty()) {
+            String name;
+            try {
+                name = completed.poll(content.getRemainingMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the result of a serializer");
+            }
+            if (name == null) {
+                break;
+            }
+            pending.remove(name);
+            writeResult(name, content.valueOf(content.getResults().get(name)), generator, provider);
+        }
+        for (String name : pending) {
+            writeResult(name, PendingContent.timedOut(), generator, provider);
+        }
+        for (Map.Entry<String, JsonNode> error : content.getErrors().entrySet()) {
+            writeResult(error.getKey(), error.getValue(), generator, provider);
+        }
+    }
+
+    private static void writeResult(String name, JsonNode result, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        generator.writeFieldName(name);
+        if (result == null) {
+            generator.writeNull();
+        } else {
+            result.serialize(generator, provider);
+        }
+        generator.flush();
+    }
+}
@@ -0,0 +1,108 @@
+package edu.mayo.dhs.uima.server.rest.models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The content of a {@link ServerResponse} whose results may still be serializing, which
+ * {@link FlushingContentSerializer} writes one result at a time as each completes. Reading it as a map waits for all
+ * results. Results are only waited on until the deadline of the request, after which any still serializing are
+ * reported as timed out. A serializer that fails or times out is reported through an error entry in place of its
+ * result, as by then the response has already been committed
+ */
+public class PendingContent extends AbstractMap<String, JsonNode> {
+    private final Map<String, CompletableFuture<JsonNode>> results;
+    private final Map<String, JsonNode> errors;
+    private final long startTime;
+    private final long deadline;
+    // Set once every serializer has finished, 0 until then
+    private volatile long finishTime = 0;
+
+    /**
+     * @param results   The future output of each serializer, keyed by name
+     * @param errors    Error entries for requested serializers that could not be run at all
+     * @param startTime The {@link System#currentTimeMillis()} at which the request was received
+     * @param deadline  The {@link System#currentTimeMillis()} until which to wait for results
+     */
+    public PendingContent(Map<String, CompletableFuture<JsonNode>> results, Map<String, JsonNode> errors,
+                          long startTime, long deadline) {
+        this.results = results;
+        this.errors = errors;
+        this.startTime = startTime;
+        this.deadline = deadline;
+        CompletableFuture.allOf(results.values().toArray(new CompletableFuture<?>[0]))
+                .whenComplete((done, e) -> finishTime = System.currentTimeMillis());
+    }
+
+    @Override
+    public Set<Entry<String, JsonNode>> entrySet() {
+        Map<String, JsonNode> completed = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<JsonNode>> result : results.entrySet()) {
+            completed.put(result.getKey(), valueOf(result.getValue()));
+        }
+        completed.putAll(errors);
+        return completed.entrySet();
+    }
+
+    /**
+     * @return The time from the request being received until every serializer finished, or until now if some are
+     * still serializing
+     */
+    long getJobDuration() {
+        long finished = finishTime;
+        return (finished == 0 ? System.currentTimeMillis() : finished) - startTime;
+    }
+
+    Map<String, CompletableFuture<JsonNode>> getResults() {
+        return results;
+    }
+
+    Map<String, JsonNode> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return The milliseconds left until the deadline of the request, at least 0
+     */
+    long getRemainingMillis() {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * @return The output of a serializer, or an error entry if it failed or did not finish by the deadline, waiting
+     * for it if still serializing
+     */
+    JsonNode valueOf(CompletableFuture<JsonNode> result) {
+        try {
+            return result.get(getRemainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return timedOut();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return error("Interrupted while waiting for serialization");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            return error("Serialization failed: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * @return The error entry of a serializer that did not finish by the deadline
+     */
+    static JsonNode timedOut() {
+        return error("Serialization did not complete within the request's timeout");
+    }
+
+    private static JsonNode error(String message) {
+        return JsonNodeFactory.instance.objectNode().put("error", message);
+    }
+}
@@ -1,5 +1,7 @@
 package edu.mayo.dhs.uima.server.rest.models;
 
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+
 import java.util.Collection;
 
 public class ServerRequest {
@@ -7,6 +9,10 @@ public class ServerRequest {
     private String metadata = null;
     private String document = null;
     private Collection<String> serializers = null;
+    private UIMAStream.Priority priority = null;
+    private Long timeout = null;
+    private boolean timings = false;
+    private boolean echo = false;
 
     public ServerRequest() {}
 
@@ -33,6 +39,35 @@ public class ServerRequest {
         return serializers;
     }
 
+    /**
+     * @return The priority lane to queue the document in, or null to use the default for the endpoint it was
+     * submitted to
+     */
+    public UIMAStream.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return How long the client is willing to wait for a result in milliseconds, or null to wait indefinitely
+     */
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return Whether to return a breakdown of where the time processing the document went alongside its results
+     */
+    public boolean isTimings() {
+        return timings;
+    }
+
+    /**
+     * @return Whether to echo the document and metadata back alongside the results
+     */
+    public boolean isEcho() {
+        return echo;
+    }
+
     public void setStreamName(String streamName) {
         this.streamName = streamName;
     }
@@ -48,4 +83,20 @@ public class ServerRequest {
     public void setSerializers(Collection<String> serializers) {
         this.serializers = serializers;
     }
+
+    public void setPriority(UIMAStream.Priority priority) {
+        this.priority = priority;
+    }
+
+    public void setTimeout(Long timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setTimings(boolean timings) {
+        this.timings = timings;
+    }
+
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+    }
 }
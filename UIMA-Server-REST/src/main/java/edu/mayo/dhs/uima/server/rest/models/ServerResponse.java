@@ -1,7 +1,11 @@
 package edu.mayo.dhs.uima.server.rest.models;
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import edu.mayo.dhs.uima.server.api.UIMAStreamTimings;
 import edu.mayo.dhs.uima.server.rest.UIMARESTServer;
 
 import java.io.Serializable;
@@ -9,13 +13,24 @@ import java.util.Map;
 
 /**
  * A Server Response to a NLP Request, interactions with this class should only be done through
- * {@link UIMARESTServer}
+ * {@link UIMARESTServer}. <br>
+ * <br>
+ * The content is flushed to the client after each serializer's result, so that the client receives results as they
+ * are written rather than once the entire response has been buffered. If the content is {@link PendingContent}, each
+ * result is written as soon as its serializer finishes. The job duration and timings are written after the content,
+ * by which point the time spent in every serializer is known
  */
+@JsonPropertyOrder({"metadata", "message", "content", "jobDuration", "timings"})
 public class ServerResponse {
     private long jobDuration = 0;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private String metadata = null;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private String message = null;
+    @JsonSerialize(using = FlushingContentSerializer.class)
     private Map<String, JsonNode> content = null;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private UIMAStreamTimings timings = null;
 
     public ServerResponse() {}
 
@@ -26,14 +41,24 @@ public class ServerResponse {
         this.content = content;
     }
 
+    /**
+     * @return The time taken to process the request including serialization, in milliseconds
+     */
     public long getJobDuration() {
-        return jobDuration;
+        // Content still serializing when the response was created knows when it finished
+        return content instanceof PendingContent ? ((PendingContent) content).getJobDuration() : jobDuration;
     }
 
+    /**
+     * @return The metadata of the request, if it asked for it to be echoed
+     */
     public String getMetadata() {
         return metadata;
     }
 
+    /**
+     * @return The document of the request, if it asked for it to be echoed
+     */
     public String getMessage() {
         return message;
     }
@@ -42,6 +67,13 @@ public class ServerResponse {
         return content;
     }
 
+    /**
+     * @return Where the time processing the document went, if requested
+     */
+    public UIMAStreamTimings getTimings() {
+        return timings;
+    }
+
     public void setJobDuration(long jobDuration) {
         this.jobDuration = jobDuration;
     }
@@ -57,4 +89,8 @@ public class ServerResponse {
     public void setContent(Map<String, JsonNode> content) {
         this.content = content;
     }
+
+    public void setTimings(UIMAStreamTimings timings) {
+        this.timings = timings;
+    }
 }
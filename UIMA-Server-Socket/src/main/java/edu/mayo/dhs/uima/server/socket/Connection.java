@@ -0,0 +1,159 @@
+package edu.mayo.dhs.uima.server.socket;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single client connection. Requests are read into a direct buffer and decoded in place, and any number of them may
+ * be in flight at once up to the loop's window, with responses written back in the order they complete. Everything
+ * other than queueing a completed response is done on the selector thread
+ */
+class Connection {
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final SelectorLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+    private final Set<CompletableFuture<ByteBuffer>> inFlight = ConcurrentHashMap.newKeySet();
+    // Kept in write mode between reads, holding any partially received frame
+    private ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_BUFFER_BYTES);
+    // Requests whose response has not yet been fully written
+    private int outstanding = 0;
+    private boolean endOfInput = false;
+    private boolean closed = false;
+
+    Connection(SelectorLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    void read() throws IOException {
+        if (channel.read(in) == -1) {
+            endOfInput = true;
+        }
+        readFrames();
+    }
+
+    /**
+     * Decodes and submits every complete frame in the read buffer, as long as the window has room for them
+     */
+    private void readFrames() throws IOException {
+        int needed = 0;
+        in.flip();
+        try {
+            while (outstanding < loop.getWindow() && in.remaining() >= FrameCodec.LENGTH_PREFIX_BYTES) {
+                int length = in.getInt(in.position());
+                if (length < FrameCodec.MIN_REQUEST_BYTES || length > loop.getMaxFrameBytes()) {
+                    throw new IOException("Received a frame of invalid length " + length);
+                }
+                if (in.remaining() < FrameCodec.LENGTH_PREFIX_BYTES + length) {
+                    needed = FrameCodec.LENGTH_PREFIX_BYTES + length;
+                    break;
+                }
+                ByteBuffer frame = in.duplicate();
+                frame.position(in.position() + FrameCodec.LENGTH_PREFIX_BYTES);
+                frame.limit(frame.position() + length);
+                in.position(frame.limit());
+                outstanding++;
+                submit(frame);
+            }
+        } finally {
+            in.compact();
+        }
+        if (needed > in.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(needed, in.capacity() * 2));
+            in.flip();
+            larger.put(in);
+            in = larger;
+        }
+    }
+
+    private void submit(ByteBuffer frame) {
+        long id = frame.getLong(frame.position());
+        CompletableFuture<ByteBuffer> response;
+        try {
+            response = loop.getProcessor().process(FrameCodec.decodeRequest(frame));
+        } catch (BufferUnderflowException e) {
+            response = CompletableFuture.completedFuture(FrameCodec.encodeError(id, FrameCodec.STATUS_INVALID_REQUEST,
+                    "Malformed request: the frame ended early"));
+        } catch (RuntimeException e) {
+            response = CompletableFuture.completedFuture(FrameCodec.encodeError(id, FrameCodec.STATUS_INVALID_REQUEST,
+                    "Malformed request: " + e.getMessage()));
+        }
+        CompletableFuture<ByteBuffer> result = response;
+        inFlight.add(result);
+        result.whenComplete((frameOut, e) -> {
+            inFlight.remove(result);
+            responses.add(e == null ? frameOut : FrameCodec.encodeError(id, FrameCodec.STATUS_FAILED, e.getMessage()));
+            loop.wakeup(this);
+        });
+    }
+
+    void write() throws IOException {
+        ByteBuffer response;
+        while ((response = responses.peek()) != null) {
+            channel.write(response);
+            if (response.hasRemaining()) {
+                // The socket's send buffer is full, continue once it has drained
+                break;
+            }
+            responses.poll();
+            outstanding--;
+        }
+        if (outstanding < loop.getWindow() && in.position() > 0) {
+            readFrames();
+        }
+    }
+
+    /**
+     * Reads only while the window has room, and writes only while responses are waiting, closing the connection once
+     * the client has stopped sending and every response has been written
+     */
+    void updateInterest() {
+        if (closed) {
+            return;
+        }
+        if (endOfInput && outstanding == 0 && responses.isEmpty()) {
+            close();
+            return;
+        }
+        int ops = 0;
+        if (!endOfInput && outstanding < loop.getWindow()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!responses.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Closes the connection, cancelling all requests still in flight on it
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+        for (CompletableFuture<ByteBuffer> response : inFlight) {
+            response.cancel(false);
+        }
+    }
+}
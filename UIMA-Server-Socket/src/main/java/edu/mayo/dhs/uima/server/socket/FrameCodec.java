@@ -0,0 +1,183 @@
+package edu.mayo.dhs.uima.server.socket;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the frames of the socket protocol, see the module's README for the layout of each frame. All
+ * integers are big-endian and all strings UTF-8. Every frame is prefixed with its length in bytes, excluding the
+ * prefix itself
+ */
+final class FrameCodec {
+
+    static final int LENGTH_PREFIX_BYTES = 4;
+    // A request frame holds at least the request ID
+    static final int MIN_REQUEST_BYTES = 8;
+
+    static final byte PRIORITY_BULK = 0;
+    static final byte PRIORITY_INTERACTIVE = 1;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_INVALID_REQUEST = 1;
+    static final byte STATUS_NOT_FOUND = 2;
+    static final byte STATUS_TIMED_OUT = 3;
+    static final byte STATUS_CANCELLED = 4;
+    static final byte STATUS_FAILED = 5;
+
+    static final byte RESULT_JSON = 0;
+    static final byte RESULT_BINARY = 1;
+    static final byte RESULT_ERROR = 2;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private FrameCodec() {}
+
+    /**
+     * Decodes a request frame. Strings are decoded straight from the frame, which may be a slice of a direct read
+     * buffer, and the frame's position is left at its end
+     *
+     * @param frame The frame, without its length prefix
+     * @throws RuntimeException if the frame is malformed
+     */
+    static FramedRequest decodeRequest(ByteBuffer frame) {
+        long id = frame.getLong();
+        byte priority = frame.get();
+        int timeoutMillis = frame.getInt();
+        String streamName = readString(frame, frame.getShort() & 0xFFFF);
+        int serializerCount = frame.get() & 0xFF;
+        List<String> serializers = new ArrayList<>(serializerCount);
+        for (int i = 0; i < serializerCount; i++) {
+            serializers.add(readString(frame, frame.getShort() & 0xFFFF));
+        }
+        int metadataLength = frame.getInt();
+        String metadata = metadataLength < 0 ? null : readString(frame, metadataLength);
+        // The document takes up the remainder of the frame
+        String document = readString(frame, frame.remaining());
+
+        if (priority != PRIORITY_BULK && priority != PRIORITY_INTERACTIVE) {
+            throw new IllegalArgumentException("Unknown priority " + priority);
+        }
+        UIMAStreamRequest request = new UIMAStreamRequest(document, metadata,
+                priority == PRIORITY_INTERACTIVE ? UIMAStream.Priority.INTERACTIVE : UIMAStream.Priority.BULK);
+        if (timeoutMillis > 0) {
+            request.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return new FramedRequest(id, streamName, serializers, request);
+    }
+
+    private static String readString(ByteBuffer frame, int length) {
+        if (length > frame.remaining()) {
+            throw new IllegalArgumentException("String of " + length + " bytes overruns its frame");
+        }
+        ByteBuffer bytes = frame.slice();
+        bytes.limit(length);
+        frame.position(frame.position() + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * Encodes the response to a successfully processed request
+     *
+     * @param results The results of each serializer that was run
+     * @param errors  Why each serializer that could not be run was not
+     * @return The frame, including its length prefix, ready to be written
+     */
+    static ByteBuffer encodeResults(long id, Map<String, JsonNode> results, Map<String, String> errors) {
+        int count = results.size() + errors.size();
+        List<byte[]> names = new ArrayList<>(count);
+        List<byte[]> payloads = new ArrayList<>(count);
+        byte[] kinds = new byte[count];
+        int i = 0;
+        for (Map.Entry<String, JsonNode> result : results.entrySet()) {
+            names.add(result.getKey().getBytes(StandardCharsets.UTF_8));
+            byte[] binary = binaryValue(result.getValue());
+            if (binary != null) {
+                kinds[i++] = RESULT_BINARY;
+                payloads.add(binary);
+            } else {
+                kinds[i++] = RESULT_JSON;
+                payloads.add(writeJson(result.getValue()));
+            }
+        }
+        for (Map.Entry<String, String> error : errors.entrySet()) {
+            names.add(error.getKey().getBytes(StandardCharsets.UTF_8));
+            kinds[i++] = RESULT_ERROR;
+            payloads.add(error.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int length = 8 + 1 + 2;
+        for (int j = 0; j < count; j++) {
+            length += 2 + names.get(j).length + 1 + 4 + payloads.get(j).length;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_PREFIX_BYTES + length);
+        frame.putInt(length).putLong(id).put(STATUS_OK).putShort((short) count);
+        for (int j = 0; j < count; j++) {
+            frame.putShort((short) names.get(j).length).put(names.get(j));
+            frame.put(kinds[j]).putInt(payloads.get(j).length).put(payloads.get(j));
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Encodes the response to a request that could not be processed
+     *
+     * @return The frame, including its length prefix, ready to be written
+     */
+    static ByteBuffer encodeError(long id, byte status, String message) {
+        byte[] bytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 1 + 4 + bytes.length;
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_PREFIX_BYTES + length);
+        frame.putInt(length).putLong(id).put(status).putInt(bytes.length).put(bytes);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * @return The result's bytes if it is a single binary value, such as the output of the binarycas serializer,
+     * null otherwise
+     */
+    private static byte[] binaryValue(JsonNode result) {
+        if (result.isBinary()) {
+            try {
+                return result.binaryValue();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (result instanceof POJONode && ((POJONode) result).getPojo() instanceof TokenBuffer) {
+            try (JsonParser parser = ((TokenBuffer) ((POJONode) result).getPojo()).asParser()) {
+                if (parser.nextToken() == JsonToken.VALUE_EMBEDDED_OBJECT && parser.getEmbeddedObject() instanceof byte[]) {
+                    return (byte[]) parser.getEmbeddedObject();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] writeJson(JsonNode result) {
+        try {
+            return MAPPER.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package edu.mayo.dhs.uima.server.socket;
+
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+
+import java.util.List;
+
+/**
+ * A document decoded from a request frame, see {@link FrameCodec}
+ */
+class FramedRequest {
+    private final long id;
+    private final String streamName;
+    private final List<String> serializers;
+    private final UIMAStreamRequest request;
+
+    FramedRequest(long id, String streamName, List<String> serializers, UIMAStreamRequest request) {
+        this.id = id;
+        this.streamName = streamName;
+        this.serializers = serializers;
+        this.request = request;
+    }
+
+    /**
+     * @return Chosen by the client to correlate the response with this request
+     */
+    long getId() {
+        return id;
+    }
+
+    String getStreamName() {
+        return streamName;
+    }
+
+    List<String> getSerializers() {
+        return serializers;
+    }
+
+    UIMAStreamRequest getRequest() {
+        return request;
+    }
+}
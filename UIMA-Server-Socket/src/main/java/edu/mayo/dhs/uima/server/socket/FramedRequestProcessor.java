@@ -0,0 +1,84 @@
+package edu.mayo.dhs.uima.server.socket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.mayo.dhs.uima.server.api.UIMANLPResultSerializer;
+import edu.mayo.dhs.uima.server.api.UIMAServer;
+import edu.mayo.dhs.uima.server.api.UIMAStream;
+import edu.mayo.dhs.uima.server.api.UIMAStreamRequest;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Submits decoded requests to their streams and encodes their results. The number of documents in flight is already
+ * bounded per connection, so documents wait to be admitted to a stream that is starting or full rather than being
+ * rejected
+ */
+class FramedRequestProcessor {
+
+    private final Logger logger = Logger.getLogger("UIMA-Socket-Server");
+    private final UIMAServer server;
+
+    FramedRequestProcessor(UIMAServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @return The encoded response frame, once the document has been processed or failed. Cancelling it cancels the
+     * document's job
+     */
+    CompletableFuture<ByteBuffer> process(FramedRequest req) {
+        UIMAStreamRequest request = req.getRequest();
+        if (request.getDocument().isEmpty() || req.getStreamName().isEmpty() || req.getSerializers().isEmpty()) {
+            return CompletableFuture.completedFuture(FrameCodec.encodeError(req.getId(), FrameCodec.STATUS_INVALID_REQUEST,
+                    "A document, stream name and at least one serializer are required"));
+        }
+        UIMAStream stream = server.getStream(req.getStreamName());
+        if (stream == null) {
+            return CompletableFuture.completedFuture(FrameCodec.encodeError(req.getId(), FrameCodec.STATUS_NOT_FOUND,
+                    "There is no currently running stream called " + req.getStreamName()));
+        }
+        Map<String, UIMANLPResultSerializer> serializers = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+        for (String name : req.getSerializers()) {
+            UIMANLPResultSerializer serializer = server.getSerializer(name);
+            if (serializer == null) {
+                errors.put(name, "There is no currently registered serializer called " + name);
+            } else {
+                serializers.put(name, serializer);
+            }
+        }
+
+        CompletableFuture<Map<String, JsonNode>> serialized = stream.submitWhenAdmitted(request, serializers);
+        // Encoded on whichever thread completed the job, keeping the selector thread free for I/O
+        CompletableFuture<ByteBuffer> ret = serialized.handle((results, e) -> e == null
+                ? FrameCodec.encodeResults(req.getId(), results, errors)
+                : fail(req, e));
+        ret.whenComplete((r, e) -> serialized.cancel(false));
+        return ret;
+    }
+
+    private ByteBuffer fail(FramedRequest req, Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        byte status;
+        if (e instanceof TimeoutException) {
+            status = FrameCodec.STATUS_TIMED_OUT;
+        } else if (e instanceof CancellationException) {
+            status = FrameCodec.STATUS_CANCELLED;
+        } else {
+            logger.log(Level.SEVERE, "Error occurred during pipeline processing or serialization of request "
+                    + req.getId() + "!", e);
+            status = FrameCodec.STATUS_FAILED;
+        }
+        return FrameCodec.encodeError(req.getId(), status, e.getMessage());
+    }
+}
@@ -0,0 +1,151 @@
+package edu.mayo.dhs.uima.server.socket;
+
+import edu.mayo.dhs.uima.server.api.UIMAServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts connections and performs all socket I/O on a single selector thread, while documents are processed and
+ * their results encoded on the streams' own threads
+ */
+class SelectorLoop implements Runnable {
+
+    private final Logger logger = Logger.getLogger("UIMA-Socket-Server");
+    private final FramedRequestProcessor processor;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread thread;
+    // Connections with newly completed responses, whose interest the selector thread is yet to update
+    private final Queue<Connection> pendingInterest = new ConcurrentLinkedQueue<>();
+    private final int window = Math.max(1, Integer.getInteger("uima.server.socket.window", 1024));
+    private final int maxFrameBytes = Integer.getInteger("uima.server.socket.frame.max", 64) * 1024 * 1024;
+    private volatile boolean running = true;
+
+    SelectorLoop(UIMAServer server, InetSocketAddress address) throws IOException {
+        this.processor = new FramedRequestProcessor(server);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(address);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        // Not a daemon, so that the server keeps running once its main thread is done
+        this.thread = new Thread(this, "UIMA-Socket-Selector");
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    FramedRequestProcessor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Called from any thread once a response has been queued on a connection
+     */
+    void wakeup(Connection connection) {
+        pendingInterest.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Stops accepting connections and closes all open ones, cancelling their requests still in flight
+     */
+    void shutdown() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Connection pending;
+                while ((pending = pendingInterest.poll()) != null) {
+                    pending.updateInterest();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        connection.updateInterest();
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Closing connection after an I/O error", e);
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Selector failed, no longer serving connections", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+                // Shutting down anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            // Frames are small and latency-sensitive, so send them as soon as they are written
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(this, channel, key));
+        }
+    }
+}
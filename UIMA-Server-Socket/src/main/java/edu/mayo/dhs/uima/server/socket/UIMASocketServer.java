@@ -0,0 +1,54 @@
+package edu.mayo.dhs.uima.server.socket;
+
+import edu.mayo.dhs.uima.server.core.UIMAServerBase;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A UIMA server for clients co-located with it, e.g. executors of a distributed job running on the same host, that
+ * speaks a length-prefixed binary protocol over plain TCP instead of HTTP. Clients may pipeline any number of requests
+ * over a connection, each response carrying the ID of its request, see the module's README for the protocol. <br>
+ * <br>
+ * Listens on -Duima.server.socket.host (default 127.0.0.1, i.e. local clients only) and -Duima.server.socket.port
+ * (default 9191)
+ */
+public class UIMASocketServer extends UIMAServerBase {
+
+    private Logger logger;
+    private SelectorLoop loop;
+
+    @Override
+    public void start() {
+        logger = Logger.getLogger("UIMA-Socket-Server");
+        InetSocketAddress address = new InetSocketAddress(System.getProperty("uima.server.socket.host", "127.0.0.1"),
+                Integer.getInteger("uima.server.socket.port", 9191));
+        try {
+            loop = new SelectorLoop(this, address);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not listen on " + address, e);
+        }
+        loop.start();
+        logger.log(Level.INFO, "Serving the socket protocol on " + address.getHostString() + ":" + loop.getPort());
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int getPort() {
+        return loop.getPort();
+    }
+
+    /**
+     * Stops accepting connections and closes all open ones, cancelling their requests still in flight
+     */
+    public void shutdown() throws InterruptedException {
+        loop.shutdown();
+    }
+
+    public static void main(String... args) {
+        new UIMASocketServer();
+    }
+}